@@ -0,0 +1,69 @@
+package grep;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Inputs that almost match patterns with nested or ambiguous repetitions.
+ * The matcher normally rejects them with the automaton, the backtracker alone shows how bad the worst case is, with and
+ * without the table of the splits that were already taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BacktrackingBenchmark {
+
+	@Param({
+		"(a|aa)*c",
+		"(a*)*c",
+		"^(\\w+ ?)+$",
+		"(a+)+\\1c",
+	})
+	String expression;
+
+	@Param({ "16", "20" })
+	int length;
+
+	@Param({ "true", "false" })
+	boolean memoize;
+
+	String input;
+	Matcher matcher;
+	Backtracker backtracker;
+
+	@Setup
+	public void setup() {
+		/* the last character is never accepted, so that every way of splitting the input is tried */
+		input = (expression.contains("\\w") ? "word ".repeat(length / 5 + 1).substring(0, length) : "a".repeat(length)) + "!";
+
+		final var pattern = Pattern.compile(expression);
+		matcher = pattern.matcher(input);
+		backtracker = new Backtracker(pattern.program);
+		backtracker.memoize = memoize;
+	}
+
+	@Benchmark
+	public boolean matcher() {
+		return matcher.reset(input).find(0);
+	}
+
+	@Benchmark
+	public boolean backtracker() {
+		return backtracker.search(input, 0, 0, input.length(), null);
+	}
+
+}
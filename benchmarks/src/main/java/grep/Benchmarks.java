@@ -0,0 +1,28 @@
+package grep;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* the regular JMH launcher, except that the results are written as JSON unless asked otherwise, so that runs of different commits can be compared */
+public class Benchmarks {
+
+	static final String RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws Exception {
+		final var commandLine = new CommandLineOptions(args);
+
+		final var options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+
+		if (!commandLine.getResult().hasValue()) {
+			options.result(RESULT_FILE);
+		}
+
+		new Runner(options.build()).run();
+	}
+
+}
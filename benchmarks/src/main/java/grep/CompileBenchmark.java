@@ -0,0 +1,59 @@
+package grep;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+	@Param({
+		"timeout",
+		"\\d+ms$",
+		"(ERROR|WARN) +.worker-\\d+.",
+		"user=(\\w+)@(\\w+)",
+		"^(\\w+ ?)+$",
+		"(\\w)\\1",
+	})
+	String expression;
+
+	@Param({ "1000" })
+	int setSize;
+
+	List<String> keywords;
+
+	@Setup
+	public void setup() {
+		keywords = new Corpus(Corpus.SEED).lines(setSize).stream()
+			.map((line) -> line.substring(line.indexOf('/'), line.indexOf(' ', line.indexOf('/'))))
+			.toList();
+	}
+
+	@Benchmark
+	public Pattern compile() {
+		return Pattern.compile(expression);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public PatternSet compileSet() {
+		return PatternSet.compile(keywords);
+	}
+
+}
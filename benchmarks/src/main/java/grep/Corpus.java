@@ -0,0 +1,80 @@
+package grep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* Generated log lines, always the same for a given seed. */
+class Corpus {
+
+	static final long SEED = 42;
+
+	private static final String[] LEVELS = { "DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR" };
+	private static final String[] METHODS = { "GET", "GET", "POST", "PUT", "DELETE" };
+	private static final String[] RESOURCES = { "users", "orders", "items", "sessions", "health" };
+	private static final String[] NAMES = { "alice", "bob", "carol", "dave", "erin", "frank" };
+	private static final String[] MESSAGES = { "ok", "ok", "ok", "slow response", "connection reset", "timeout after retry" };
+
+	private final Random random;
+
+	Corpus(long seed) {
+		this.random = new Random(seed);
+	}
+
+	String nextLine() {
+		return "2025-%02d-%02dT%02d:%02d:%02d.%03dZ %-5s [worker-%d] %s /api/%s/%d %d %dms user=%s@example.com %s".formatted(
+			1 + random.nextInt(12),
+			1 + random.nextInt(28),
+			random.nextInt(24),
+			random.nextInt(60),
+			random.nextInt(60),
+			random.nextInt(1000),
+			pick(LEVELS),
+			random.nextInt(32),
+			pick(METHODS),
+			pick(RESOURCES),
+			random.nextInt(100_000),
+			random.nextInt(10) == 0 ? 500 : 200,
+			random.nextInt(2_000),
+			pick(NAMES),
+			pick(MESSAGES)
+		);
+	}
+
+	List<String> lines(int count) {
+		final var lines = new ArrayList<String>(count);
+
+		for (var index = 0; index < count; ++index) {
+			lines.add(nextLine());
+		}
+
+		return lines;
+	}
+
+	void write(Path path, long size) throws IOException {
+		try (
+			final BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)
+		) {
+			var written = 0L;
+
+			while (written < size) {
+				final var line = nextLine();
+
+				writer.write(line);
+				writer.write('\n');
+
+				written += line.length() + 1;
+			}
+		}
+	}
+
+	private String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+}
@@ -0,0 +1,81 @@
+package grep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * End to end search of a generated log file, the output is discarded.
+ * The default size keeps a full run short, multi-gigabyte corpora are a parameter away: `-p megabytes=4096`.
+ * The file is written once per trial, in the directory given by `-Dgrep.corpus.directory` (or the temporary one).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileScanBenchmark {
+
+	@Param({ "256" })
+	long megabytes;
+
+	@Param({ "1", "4" })
+	int jobs;
+
+	@Param({ "false", "true" })
+	boolean mapFiles;
+
+	@Param({
+		"timeout",
+		"(ERROR|WARN) +.worker-\\d+.",
+		"user=(\\w+)@(\\w+) timeout",
+	})
+	String expression;
+
+	Path file;
+	PatternSet patterns;
+	Output output;
+
+	@Setup
+	public void setup() throws IOException {
+		final var directory = Path.of(System.getProperty("grep.corpus.directory", System.getProperty("java.io.tmpdir")));
+
+		file = Files.createTempFile(directory, "grep-corpus-", ".log");
+		new Corpus(Corpus.SEED).write(file, megabytes * 1024 * 1024);
+
+		patterns = PatternSet.compile(List.of(expression));
+		output = new Output(Channels.newChannel(OutputStream.nullOutputStream()), Output.DEFAULT_CAPACITY, false);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public boolean scan() {
+		final var search = new FileSearch(patterns, false, true, jobs, output);
+		search.mapFiles = mapFiles;
+
+		return search.run(List.of(file.toString()), false);
+	}
+
+}
@@ -0,0 +1,114 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* lines searched per second, for a corpus of patterns that are typical of log searches */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindBenchmark {
+
+	static final int LINE_COUNT = 10_000;
+
+	@Param({
+		"timeout",
+		"^2025-\\d+-\\d+T",
+		"\\d+ms$",
+		"(ERROR|WARN) +.worker-\\d+.",
+		"user=(\\w+)@(\\w+)",
+		"[^ ]+@[^ ]+ timeout",
+		"\\w++@",
+		"(\\d)\\1\\1",
+	})
+	String expression;
+
+	List<String> lines;
+	List<ByteSequence> byteLines;
+	Matcher matcher;
+	SetMatcher setMatcher;
+
+	@Setup
+	public void setup() {
+		lines = new Corpus(Corpus.SEED).lines(LINE_COUNT);
+		byteLines = lines.stream()
+			.map((line) -> {
+				final var bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+
+				return new ByteSequence().set(bytes, 0, bytes.length);
+			})
+			.toList();
+
+		matcher = Pattern.compile(expression).matcher("");
+		setMatcher = PatternSet.compile(List.of(expression)).matcher();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINE_COUNT)
+	public int findInStrings() {
+		var count = 0;
+
+		for (final var line : lines) {
+			if (matcher.reset(line).find(0)) {
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINE_COUNT)
+	public int findInBytes() {
+		var count = 0;
+
+		for (final var line : byteLines) {
+			if (matcher.reset(line).find(0)) {
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+	/* only whether the lines match, like grep without -o */
+	@Benchmark
+	@OperationsPerInvocation(LINE_COUNT)
+	public int recognizeInBytes() {
+		var count = 0;
+
+		for (final var line : byteLines) {
+			if (setMatcher.reset(line).find()) {
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+	/* the same, with the vector scans skipping to where a match can start */
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+	@OperationsPerInvocation(LINE_COUNT)
+	public int findInBytesVectorized() {
+		return findInBytes();
+	}
+
+}
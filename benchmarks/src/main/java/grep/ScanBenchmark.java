@@ -0,0 +1,117 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* microseconds to scan the whole corpus, one byte at a time against a vector at a time past the first bytes */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ScanBenchmark {
+
+	static final int LINE_COUNT = 10_000;
+
+	byte[] array;
+	ByteClass rare;
+	ByteClass word;
+
+	@Setup
+	public void setup() {
+		array = String.join("\n", new Corpus(Corpus.SEED).lines(LINE_COUNT)).getBytes(StandardCharsets.ISO_8859_1);
+
+		rare = ByteClass.of((character) -> character == '@' || character == '#');
+		word = ByteClass.of(Pattern.CharacterRangeClass.WORDS);
+	}
+
+	@Benchmark
+	public int newlinesScalar() {
+		var count = 0;
+
+		for (var index = ByteScan.scalarIndexOf(array, 0, array.length, (byte) '\n'); index != -1; index = ByteScan.scalarIndexOf(array, index + 1, array.length, (byte) '\n')) {
+			++count;
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int newlinesVectorized() {
+		var count = 0;
+
+		for (var index = ByteScan.indexOf(array, 0, array.length, (byte) '\n'); index != -1; index = ByteScan.indexOf(array, index + 1, array.length, (byte) '\n')) {
+			++count;
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int rareClassScalar() {
+		var count = 0;
+
+		for (var index = ByteScan.scalarIndexOfAny(array, 0, array.length, rare); index != -1; index = ByteScan.scalarIndexOfAny(array, index + 1, array.length, rare)) {
+			++count;
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int rareClassVectorized() {
+		var count = 0;
+
+		for (var index = ByteScan.indexOfAny(array, 0, array.length, rare); index != -1; index = ByteScan.indexOfAny(array, index + 1, array.length, rare)) {
+			++count;
+		}
+
+		return count;
+	}
+
+	/* skips every run of word characters, then the character that ends it */
+	@Benchmark
+	public int wordRunsScalar() {
+		var count = 0;
+
+		for (var index = 0; index < array.length; ++count) {
+			final var end = ByteScan.scalarIndexOfNone(array, index, array.length, word);
+			if (end == -1) {
+				break;
+			}
+
+			index = end + 1;
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int wordRunsVectorized() {
+		var count = 0;
+
+		for (var index = 0; index < array.length; ++count) {
+			final var end = ByteScan.indexOfNone(array, index, array.length, word);
+			if (end == -1) {
+				break;
+			}
+
+			index = end + 1;
+		}
+
+		return count;
+	}
+
+}
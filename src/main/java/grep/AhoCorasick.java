@@ -0,0 +1,190 @@
+package grep;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/*
+ * Finds every occurrence of many keywords in a single pass.
+ * Nodes of the trie are indexes into parallel arrays, the root being 0. The root has a transition table covering every
+ * character, the other nodes keep their children in a list, since past the first characters there are rarely more
+ * than a few of them.
+ */
+class AhoCorasick {
+
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private final int[] rootTransitions = new int[Character.MAX_VALUE + 1];
+
+	private char[] labels = new char[16];
+	private int[] firstChildren = new int[16];
+	private int[] nextSiblings = new int[16];
+	private int[] failures = new int[16];
+	private int[] dictionaries = new int[16];
+	private int[] outputs = new int[16];
+	private int nodeCount;
+
+	/* keywords that end at the same node are chained */
+	private final int[] nextOutputs;
+
+	AhoCorasick(List<String> keywords) {
+		nextOutputs = new int[keywords.size()];
+		Arrays.fill(nextOutputs, NONE);
+
+		newNode('\0');
+
+		for (var id = 0; id < keywords.size(); ++id) {
+			insert(keywords.get(id), id);
+		}
+
+		link();
+	}
+
+	int nodeCount() {
+		return nodeCount;
+	}
+
+	boolean containsAny(CharSequence sequence, int from, int to) {
+		var node = ROOT;
+
+		for (var index = from; index < to; ++index) {
+			node = next(node, sequence.charAt(index));
+
+			if (outputs[node] != NONE || dictionaries[node] != ROOT) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/* reports the id of every keyword found in the range, as many times as it occurs */
+	void findAll(CharSequence sequence, int from, int to, IntConsumer matches) {
+		var node = ROOT;
+
+		for (var index = from; index < to; ++index) {
+			node = next(node, sequence.charAt(index));
+
+			var output = outputs[node] != NONE ? node : dictionaries[node];
+			while (output != ROOT) {
+				for (var id = outputs[output]; id != NONE; id = nextOutputs[id]) {
+					matches.accept(id);
+				}
+
+				output = dictionaries[output];
+			}
+		}
+	}
+
+	private int next(int node, char character) {
+		while (node != ROOT) {
+			final var child = child(node, character);
+			if (child != NONE) {
+				return child;
+			}
+
+			node = failures[node];
+		}
+
+		return rootTransitions[character];
+	}
+
+	private int child(int node, char character) {
+		if (node == ROOT) {
+			final var child = rootTransitions[character];
+			return child == ROOT ? NONE : child;
+		}
+
+		for (var child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+			if (labels[child] == character) {
+				return child;
+			}
+		}
+
+		return NONE;
+	}
+
+	private void insert(String keyword, int id) {
+		if (keyword.isEmpty()) {
+			throw new IllegalArgumentException("keywords cannot be empty");
+		}
+
+		var node = ROOT;
+		for (var index = 0; index < keyword.length(); ++index) {
+			final var character = keyword.charAt(index);
+
+			var child = child(node, character);
+			if (child == NONE) {
+				child = newNode(character);
+
+				if (node == ROOT) {
+					rootTransitions[character] = child;
+				} else {
+					nextSiblings[child] = firstChildren[node];
+					firstChildren[node] = child;
+				}
+			}
+
+			node = child;
+		}
+
+		nextOutputs[id] = outputs[node];
+		outputs[node] = id;
+	}
+
+	/* breadth-first, so that the failure of a node is always computed before its children need it */
+	private void link() {
+		final var queue = new int[nodeCount];
+		var head = 0;
+		var tail = 0;
+
+		for (var character = 0; character <= Character.MAX_VALUE; ++character) {
+			final var child = rootTransitions[character];
+
+			if (child != ROOT) {
+				failures[child] = ROOT;
+				dictionaries[child] = ROOT;
+				queue[tail++] = child;
+			}
+		}
+
+		while (head != tail) {
+			final var node = queue[head++];
+
+			for (var child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+				final var failure = next(failures[node], labels[child]);
+
+				failures[child] = failure;
+				dictionaries[child] = outputs[failure] != NONE ? failure : dictionaries[failure];
+
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	private int newNode(char label) {
+		if (nodeCount == labels.length) {
+			final var capacity = nodeCount * 2;
+
+			labels = Arrays.copyOf(labels, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			failures = Arrays.copyOf(failures, capacity);
+			dictionaries = Arrays.copyOf(dictionaries, capacity);
+			outputs = Arrays.copyOf(outputs, capacity);
+		}
+
+		final var node = nodeCount++;
+
+		labels[node] = label;
+		firstChildren[node] = NONE;
+		nextSiblings[node] = NONE;
+		failures[node] = ROOT;
+		dictionaries[node] = ROOT;
+		outputs[node] = NONE;
+
+		return node;
+	}
+
+}
@@ -0,0 +1,497 @@
+package grep;
+
+import java.util.Arrays;
+
+/*
+ * Interprets the compiled program with an explicit stack instead of recursing, so that the depth of a repetition is
+ * only bounded by the heap.
+ * Every stack frame is a pair of ints: either an alternative to resume (pc, position), or a slot to restore when
+ * backtracking over a save (-1 - slot, previous value).
+ * Atomic groups remember the stack depth when they are entered, and drop the alternatives pushed since when they are
+ * left.
+ * When the input is short enough, every split remembers the positions it was already taken at, as in the bit-state
+ * engine of RE2: a state that is reached again can only fail again, which bounds a search by the number of splits
+ * times the number of positions. That only holds for the splits whose outcome does not depend on anything else than
+ * the position: the ones that cannot reach a back-reference, and that are not inside of an atomic group or of a
+ * repetition that can match nothing.
+ * Steps are counted down in a local and only charged every CHECK_INTERVAL instructions, which is also when the clock is
+ * read, so that a limit costs nothing but a decrement on the hot path.
+ */
+class Backtracker {
+
+	private static final int INITIAL_STACK_SIZE = 64;
+	private static final int CHECK_INTERVAL = 1 << 12;
+
+	static final long UNLIMITED = Long.MAX_VALUE;
+
+	/* the same budget as RE2, 32 KiB of bits */
+	static final int MAXIMUM_VISITED_BITS = 256 * 1024;
+
+	final Program program;
+	final int[] slots;
+
+	private final ByteClass[] runClasses;
+	private final int[] splitIds;
+	private final int splitCount;
+
+	private int[] stack = new int[INITIAL_STACK_SIZE];
+	private int depth;
+
+	/* no path goes past it, the end of the input unless a match is known not to go further */
+	private int limit;
+
+	/* split id * width + position - base, only used for the current search when it fits */
+	private long[] visited = new long[0];
+	private boolean memoized;
+	private int base;
+	private int width;
+
+	boolean memoize = true;
+
+	boolean hitEnd;
+
+	/* for a whole search or match, over every start position */
+	long stepLimit = UNLIMITED;
+	long timeoutNanos = UNLIMITED;
+
+	private long spent;
+	private int interval;
+	private int countdown;
+	private long startedAt;
+
+	Backtracker(Program program) {
+		this.program = program;
+		this.slots = new int[program.slotCount];
+
+		final var analysis = program.analysis();
+		this.runClasses = analysis.runClasses();
+		this.splitIds = analysis.splitIds();
+		this.splitCount = analysis.splitCount();
+	}
+
+	/* tries every start position from index, the first one that matches wins */
+	boolean search(CharSequence sequence, int from, int index, int to, Literal prefix) {
+		Arrays.fill(slots, -1);
+		hitEnd = false;
+		startBudget();
+
+		/* a failure stays a failure at any start position, so the table is kept until the end */
+		limit = to;
+		startMemo(index, to);
+
+		for (; index <= to; ++index) {
+			if (prefix != null) {
+				index = prefix.indexOf(sequence, index, to);
+
+				if (index == -1) {
+					break;
+				}
+			}
+
+			if (run(sequence, from, index, to, false)) {
+				return true;
+			}
+		}
+
+		hitEnd = true;
+		return false;
+	}
+
+	/* whether the whole range is a match, not only its start */
+	boolean matches(CharSequence sequence, int from, int to) {
+		Arrays.fill(slots, -1);
+		hitEnd = false;
+		startBudget();
+		limit = to;
+		startMemo(from, to);
+
+		return run(sequence, from, from, to, true);
+	}
+
+	/*
+	 * Only tries a match that starts at index, and that an automaton found to end at limit at the latest: the paths that
+	 * would go further are cut, and the table of visited splits only has to cover the positions in between.
+	 */
+	boolean searchAt(CharSequence sequence, int from, int index, int limit, int to) {
+		Arrays.fill(slots, -1);
+		hitEnd = false;
+		startBudget();
+		this.limit = limit;
+		startMemo(index, limit);
+
+		return run(sequence, from, index, to, false);
+	}
+
+	boolean run(CharSequence sequence, int from, int position, int to, boolean toEnd) {
+		final var opcodes = program.opcodes;
+		final var operands = program.operands;
+		final var alternates = program.alternates;
+		final var predicates = program.predicates;
+
+		depth = 0;
+		var pc = 0;
+		var countdown = this.countdown;
+
+		while (true) {
+			if (countdown-- == 0) {
+				countdown = checkpoint();
+			}
+
+			var failed = false;
+
+			switch (opcodes[pc]) {
+				case Program.CHAR -> {
+					if (position >= limit) {
+						hitEnd |= position == to;
+						failed = true;
+					} else if (predicates[operands[pc]].test(sequence.charAt(position))) {
+						++position;
+						++pc;
+					} else {
+						failed = true;
+					}
+				}
+
+				case Program.SPLIT -> {
+					if (memoized && splitIds[pc] != -1 && !visit(splitIds[pc], position)) {
+						failed = true;
+					} else {
+						push(alternates[pc], position);
+						pc = operands[pc];
+					}
+				}
+
+				case Program.JUMP -> pc = operands[pc];
+
+				case Program.BEGIN -> {
+					if (position == from) {
+						++pc;
+					} else {
+						failed = true;
+					}
+				}
+
+				case Program.END -> {
+					if (position == to) {
+						++pc;
+					} else {
+						failed = true;
+					}
+				}
+
+				case Program.SAVE -> {
+					final var slot = operands[pc];
+
+					push(-1 - slot, slots[slot]);
+					slots[slot] = position;
+					++pc;
+				}
+
+				case Program.PROGRESS -> {
+					if (slots[operands[pc]] == position) {
+						pc = alternates[pc];
+					} else {
+						++pc;
+					}
+				}
+
+				case Program.RUN -> {
+					final var predicate = predicates[operands[pc]];
+
+					var limit = this.limit;
+					if (alternates[pc] != Pattern.Repeat.UNBOUNDED) {
+						limit = Math.min(limit, position + alternates[pc]);
+					}
+
+					final var runClass = runClasses != null ? runClasses[pc] : null;
+					if (runClass != null && sequence instanceof ByteSequence bytes) {
+						final var offset = bytes.start();
+
+						final var end = ByteScan.indexOfNone(bytes.array(), offset + position, offset + limit, runClass);
+						position = end == -1 ? limit : end - offset;
+					} else {
+						while (position < limit && predicate.test(sequence.charAt(position))) {
+							++position;
+						}
+					}
+
+					if (position == to) {
+						hitEnd = true;
+					}
+
+					++pc;
+				}
+
+				case Program.MARK -> {
+					final var slot = operands[pc];
+
+					push(-1 - slot, slots[slot]);
+					slots[slot] = depth;
+					++pc;
+				}
+
+				case Program.CUT -> {
+					cut(slots[operands[pc]]);
+					++pc;
+				}
+
+				case Program.BACK_REFERENCE -> {
+					final var length = matchBackReference(sequence, operands[pc], position, to);
+
+					if (length == -1) {
+						failed = true;
+					} else {
+						position += length;
+						++pc;
+					}
+				}
+
+				case Program.MATCH -> {
+					if (!toEnd || position == to) {
+						this.countdown = countdown;
+						return true;
+					}
+
+					failed = true;
+				}
+			}
+
+			if (failed) {
+				while (true) {
+					if (depth == 0) {
+						this.countdown = countdown;
+						return false;
+					}
+
+					final var value = stack[--depth];
+					final var target = stack[--depth];
+
+					if (target < 0) {
+						slots[-1 - target] = value;
+					} else {
+						pc = target;
+						position = value;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private void startMemo(int from, int to) {
+		final var bits = (long) splitCount * (to - from + 1);
+		memoized = memoize && splitCount != 0 && bits <= MAXIMUM_VISITED_BITS;
+
+		if (!memoized) {
+			return;
+		}
+
+		base = from;
+		width = to - from + 1;
+
+		final var words = (int) ((bits + 63) >>> 6);
+		if (visited.length < words) {
+			visited = new long[words];
+		} else {
+			Arrays.fill(visited, 0, words, 0);
+		}
+	}
+
+	/* whether the split had not been taken at this position yet */
+	private boolean visit(int id, int position) {
+		final var bit = id * width + position - base;
+		final var word = bit >>> 6;
+		final var mask = 1L << bit;
+
+		if ((visited[word] & mask) != 0) {
+			return false;
+		}
+
+		visited[word] |= mask;
+		return true;
+	}
+
+	/* the steps that are charged at each checkpoint, bounded so that the limit is never overshot */
+	private void startBudget() {
+		spent = 0;
+		interval = countdown = (int) Math.min(CHECK_INTERVAL, stepLimit);
+
+		if (timeoutNanos != UNLIMITED) {
+			startedAt = System.nanoTime();
+		}
+	}
+
+	/* called once the steps of the current interval are spent, the step that is about to run is the first of the next one */
+	private int checkpoint() {
+		spent += interval;
+
+		if (spent >= stepLimit) {
+			throw new MatchTimeoutException("gave up after %d steps".formatted(spent), spent);
+		}
+
+		if (timeoutNanos != UNLIMITED) {
+			final var elapsed = System.nanoTime() - startedAt;
+
+			if (elapsed > timeoutNanos) {
+				throw new MatchTimeoutException("gave up after %d ms".formatted(elapsed / 1_000_000), spent);
+			}
+		}
+
+		interval = (int) Math.min(CHECK_INTERVAL, stepLimit - spent);
+		return interval - 1;
+	}
+
+	/* returns the length of the group if it is repeated at position, or -1 */
+	private int matchBackReference(CharSequence sequence, int group, int position, int to) {
+		final var start = slots[group * 2];
+		final var end = slots[group * 2 + 1];
+
+		/* group not matched */
+		if (start < 0 || end < start) {
+			return -1;
+		}
+
+		final var length = end - start;
+
+		/* not enough characters left */
+		if (position + length > to) {
+			hitEnd = true;
+			return -1;
+		}
+
+		for (var index = 0; index < length; ++index) {
+			if (sequence.charAt(start + index) != sequence.charAt(position + index)) {
+				return -1;
+			}
+		}
+
+		return length;
+	}
+
+	/* the saves above the mark are kept so that they are still undone when backtracking past the group */
+	private void cut(int mark) {
+		var kept = mark;
+
+		for (var index = mark; index < depth; index += 2) {
+			if (stack[index] < 0) {
+				stack[kept++] = stack[index];
+				stack[kept++] = stack[index + 1];
+			}
+		}
+
+		depth = kept;
+	}
+
+	private void push(int target, int value) {
+		if (depth + 2 > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+
+		stack[depth++] = target;
+		stack[depth++] = value;
+	}
+
+	/* only depends on the program, which computes it once for all of its backtrackers */
+	static Analysis analyze(Program program) {
+		final var splitIds = numberSplits(program);
+		final var splitCount = (int) Arrays.stream(splitIds).filter((id) -> id != -1).count();
+
+		return new Analysis(findRunClasses(program), splitIds, splitCount);
+	}
+
+	/* the splits from which a back-reference can be reached are left out, found by walking the program backwards until nothing changes */
+	private static int[] numberSplits(Program program) {
+		final var size = program.size();
+		final var referencing = new boolean[size];
+
+		var changed = program.hasBackReferences;
+		while (changed) {
+			changed = false;
+
+			for (var pc = size - 1; pc >= 0; --pc) {
+				if (referencing[pc]) {
+					continue;
+				}
+
+				final var operand = program.operands[pc];
+				final var alternate = program.alternates[pc];
+
+				referencing[pc] = switch (program.opcodes[pc]) {
+					case Program.BACK_REFERENCE -> true;
+					case Program.MATCH -> false;
+					case Program.JUMP -> referencing[operand];
+					case Program.SPLIT -> referencing[operand] || referencing[alternate];
+					case Program.PROGRESS -> referencing[pc + 1] || referencing[alternate];
+					default -> referencing[pc + 1];
+				};
+
+				changed |= referencing[pc];
+			}
+		}
+
+		/*
+		 * The body of a repetition that can match nothing can come back to one of its splits at the same position while
+		 * that split is still being explored, through an empty iteration that is not a failure.
+		 * Inside of an atomic group, a failure after the group is left also drops the alternatives of the group, which a
+		 * remembered split would not do.
+		 */
+		final var excluded = new boolean[size];
+		for (var pc = 0; pc < size; ++pc) {
+			final var opening = switch (program.opcodes[pc]) {
+				case Program.PROGRESS -> Program.SAVE;
+				case Program.CUT -> Program.MARK;
+				default -> -1;
+			};
+
+			if (opening == -1) {
+				continue;
+			}
+
+			var start = pc - 1;
+			while (!(program.opcodes[start] == opening && program.operands[start] == program.operands[pc])) {
+				excluded[start--] = true;
+			}
+		}
+
+		final var ids = new int[size];
+		var count = 0;
+
+		for (var pc = 0; pc < size; ++pc) {
+			ids[pc] = program.opcodes[pc] == Program.SPLIT && !referencing[pc] && !excluded[pc] ? count++ : -1;
+		}
+
+		return ids;
+	}
+
+	private static ByteClass[] findRunClasses(Program program) {
+		if (!ByteScan.VECTORIZED) {
+			return null;
+		}
+
+		ByteClass[] runClasses = null;
+		for (var pc = 0; pc < program.size(); ++pc) {
+			if (program.opcodes[pc] != Program.RUN) {
+				continue;
+			}
+
+			final var runClass = ByteClass.of(program.predicates[program.operands[pc]]);
+			if (ByteScan.isVectorizable(runClass)) {
+				if (runClasses == null) {
+					runClasses = new ByteClass[program.size()];
+				}
+
+				runClasses[pc] = runClass;
+			}
+		}
+
+		return runClasses;
+	}
+
+	/* the classes of the runs that a vector scan can skip through, and a dense number for each split that can be remembered or -1, both indexed by pc */
+	record Analysis(
+		ByteClass[] runClasses,
+		int[] splitIds,
+		int splitCount
+	) {}
+
+}
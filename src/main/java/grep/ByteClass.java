@@ -0,0 +1,87 @@
+package grep;
+
+import java.util.Arrays;
+
+import grep.Pattern.CharPredicate;
+
+/*
+ * The bytes that a predicate accepts, both as a 256-entry table for scanning one byte at a time, and as ranges for
+ * scanning a vector at a time.
+ * The bounds of the ranges have their sign bit flipped, so that unsigned bytes can be compared as signed ones.
+ */
+final class ByteClass {
+
+	private static final int SIGN = 0x80;
+
+	final boolean[] table;
+	final byte[] lows;
+	final byte[] highs;
+	final int size;
+
+	private ByteClass(boolean[] table) {
+		this.table = table;
+
+		final var lows = new byte[table.length];
+		final var highs = new byte[table.length];
+		var rangeCount = 0;
+		var size = 0;
+
+		for (var value = 0; value < table.length; ++value) {
+			if (!table[value]) {
+				continue;
+			}
+
+			++size;
+
+			if (value != 0 && table[value - 1]) {
+				highs[rangeCount - 1] = (byte) (value ^ SIGN);
+			} else {
+				lows[rangeCount] = (byte) (value ^ SIGN);
+				highs[rangeCount] = (byte) (value ^ SIGN);
+				++rangeCount;
+			}
+		}
+
+		this.lows = Arrays.copyOf(lows, rangeCount);
+		this.highs = Arrays.copyOf(highs, rangeCount);
+		this.size = size;
+	}
+
+	static ByteClass of(CharPredicate predicate) {
+		final var table = new boolean[256];
+
+		for (var value = 0; value < table.length; ++value) {
+			table[value] = predicate.test((char) value);
+		}
+
+		return new ByteClass(table);
+	}
+
+	static ByteClass of(boolean[] table) {
+		return new ByteClass(table.clone());
+	}
+
+	boolean contains(byte value) {
+		return table[value & 0xff];
+	}
+
+	int rangeCount() {
+		return lows.length;
+	}
+
+	@Override
+	public String toString() {
+		final var builder = new StringBuilder("ByteClass[");
+
+		for (var index = 0; index < lows.length; ++index) {
+			if (index != 0) {
+				builder.append(", ");
+			}
+
+			builder.append("%02x-%02x".formatted((lows[index] ^ SIGN) & 0xff, (highs[index] ^ SIGN) & 0xff));
+		}
+
+		return builder.append(']').toString();
+	}
+
+}
@@ -0,0 +1,198 @@
+package grep;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/*
+ * Searches of a byte array, or of a mapped file, for the first byte in (or out of) a class.
+ * They are done a vector at a time when the incubating Vector API has been added with
+ * `--add-modules jdk.incubator.vector`, and fall back to one byte at a time otherwise, or when the class has too many
+ * ranges to be compared cheaply.
+ */
+final class ByteScan {
+
+	static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	static final int MAXIMUM_VECTOR_RANGES = 4;
+
+	/* from the most frequent, the bytes that are not listed are taken as the rarest */
+	private static final String COMMON_BYTES = " etaoinsrhldcu0123456789mfpgwybv.:-=/,_ETAOINSRHLDCUMFPGWYBV";
+
+	/* most runs and most lines are short, the first bytes are not worth loading a whole vector for */
+	static final int SCALAR_PREFIX = 16;
+
+	private ByteScan() {}
+
+	static boolean isVectorizable(ByteClass byteClass) {
+		return VECTORIZED && byteClass.rangeCount() <= MAXIMUM_VECTOR_RANGES;
+	}
+
+	static int indexOf(byte[] array, int from, int to, byte value) {
+		final var prefixEnd = VECTORIZED ? Math.min(to, from + SCALAR_PREFIX) : to;
+
+		final var index = scalarIndexOf(array, from, prefixEnd, value);
+		if (index != -1 || prefixEnd == to) {
+			return index;
+		}
+
+		return VectorScan.indexOf(array, prefixEnd, to, value);
+	}
+
+	static int indexOfAny(byte[] array, int from, int to, ByteClass byteClass) {
+		final var prefixEnd = isVectorizable(byteClass) ? Math.min(to, from + SCALAR_PREFIX) : to;
+
+		final var index = scalarIndexOfAny(array, from, prefixEnd, byteClass);
+		if (index != -1 || prefixEnd == to) {
+			return index;
+		}
+
+		return VectorScan.indexOfAny(array, prefixEnd, to, byteClass);
+	}
+
+	static int indexOfNone(byte[] array, int from, int to, ByteClass byteClass) {
+		final var prefixEnd = isVectorizable(byteClass) ? Math.min(to, from + SCALAR_PREFIX) : to;
+
+		final var index = scalarIndexOfNone(array, from, prefixEnd, byteClass);
+		if (index != -1 || prefixEnd == to) {
+			return index;
+		}
+
+		return VectorScan.indexOfNone(array, prefixEnd, to, byteClass);
+	}
+
+	static long indexOf(MemorySegment segment, long from, long to, byte value) {
+		if (!VECTORIZED) {
+			return scalarIndexOf(segment, from, to, value);
+		}
+
+		return VectorScan.indexOf(segment, from, to, value);
+	}
+
+	/* the rarest of the bytes of the needle is looked for, every place it is found at is then compared with the others */
+	static long indexOf(MemorySegment segment, long from, long to, MemorySegment needle, int rarest) {
+		final var length = needle.byteSize();
+		final var rarestByte = needle.get(ValueLayout.JAVA_BYTE, rarest);
+		final var lastStart = to - length;
+
+		var index = from;
+		while (index <= lastStart) {
+			final var found = indexOf(segment, index + rarest, lastStart + rarest + 1, rarestByte);
+			if (found == -1) {
+				return -1;
+			}
+
+			index = found - rarest;
+			if (MemorySegment.mismatch(segment, index, index + length, needle, 0, length) == -1) {
+				return index;
+			}
+
+			++index;
+		}
+
+		return -1;
+	}
+
+	/* a guess, from how often the bytes are seen in text and logs: letters and digits before punctuation */
+	static int rarest(byte[] bytes) {
+		var rarest = 0;
+		var rarestRank = -1;
+
+		for (var index = 0; index < bytes.length; ++index) {
+			final var rank = COMMON_BYTES.indexOf(bytes[index] & 0xFF);
+			if (rank == -1) {
+				return index;
+			}
+
+			if (rank > rarestRank) {
+				rarest = index;
+				rarestRank = rank;
+			}
+		}
+
+		return rarest;
+	}
+
+	/* only used to go back to the start of a line, which is never far */
+	static long lastIndexOf(MemorySegment segment, long from, long to, byte value) {
+		for (var index = to - 1; index >= from; --index) {
+			if (segment.get(ValueLayout.JAVA_BYTE, index) == value) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	static int count(byte[] array, int from, int to, byte value) {
+		if (!VECTORIZED) {
+			return (int) scalarCount(MemorySegment.ofArray(array), from, to, value);
+		}
+
+		return (int) VectorScan.count(MemorySegment.ofArray(array), from, to, value);
+	}
+
+	static long count(MemorySegment segment, long from, long to, byte value) {
+		if (!VECTORIZED) {
+			return scalarCount(segment, from, to, value);
+		}
+
+		return VectorScan.count(segment, from, to, value);
+	}
+
+	static long scalarIndexOf(MemorySegment segment, long from, long to, byte value) {
+		for (var index = from; index < to; ++index) {
+			if (segment.get(ValueLayout.JAVA_BYTE, index) == value) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	static long scalarCount(MemorySegment segment, long from, long to, byte value) {
+		var count = 0L;
+
+		for (var index = from; index < to; ++index) {
+			if (segment.get(ValueLayout.JAVA_BYTE, index) == value) {
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+	static int scalarIndexOf(byte[] array, int from, int to, byte value) {
+		for (var index = from; index < to; ++index) {
+			if (array[index] == value) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	static int scalarIndexOfAny(byte[] array, int from, int to, ByteClass byteClass) {
+		final var table = byteClass.table;
+
+		for (var index = from; index < to; ++index) {
+			if (table[array[index] & 0xff]) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	static int scalarIndexOfNone(byte[] array, int from, int to, ByteClass byteClass) {
+		final var table = byteClass.table;
+
+		for (var index = from; index < to; ++index) {
+			if (!table[array[index] & 0xff]) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+}
@@ -0,0 +1,48 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+
+/* Latin-1 view over a slice of a byte array, re-pointed for every line instead of being re-allocated. */
+class ByteSequence implements CharSequence {
+
+	private byte[] array;
+	private int start;
+	private int length;
+
+	ByteSequence set(byte[] array, int start, int end) {
+		this.array = array;
+		this.start = start;
+		this.length = end - start;
+
+		return this;
+	}
+
+	byte[] array() {
+		return array;
+	}
+
+	int start() {
+		return start;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (array[start + index] & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(array, this.start + start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return new String(array, start, length, StandardCharsets.ISO_8859_1);
+	}
+
+}
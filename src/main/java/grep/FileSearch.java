@@ -0,0 +1,783 @@
+package grep;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+@RequiredArgsConstructor
+class FileSearch {
+
+	/* how many files or chunks each worker may have scanned ahead of the one currently being written */
+	static final int PENDING_PER_JOB = 8;
+
+	/*
+	 * Smaller files are read ahead by virtual threads, many at once, so that waiting on the disk overlaps with matching
+	 * the files already read. They may be that many ahead of the one being written, and hold that many bytes.
+	 */
+	static final long READ_AHEAD_LIMIT = 1024 * 1024;
+	static final int READ_AHEAD_FILES = 4096;
+	static final long READ_AHEAD_BYTES = 64 * 1024 * 1024;
+
+	/* files of at least two chunks are split and scanned by several workers */
+	static final long CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/* smaller files are read, mapping them costs more than the copy it saves */
+	static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+	private static final int BOUNDARY_PROBE_SIZE = 64 * 1024;
+
+	private static final String STANDARD_INPUT_NAME = "(standard input)";
+
+	final PatternSet patterns;
+	final boolean printFileName;
+	final boolean printLineNumber;
+	final int jobs;
+	final Output output;
+
+	long chunkSize = CHUNK_SIZE;
+
+	/* prefixes each line with the patterns it matched */
+	boolean printPattern;
+
+	/* prints the matches instead of their lines, each on a line of its own */
+	boolean onlyMatching;
+
+	/* prints where every line, or every match, starts in its file */
+	boolean printByteOffset;
+
+	/* highlights the matches, and colors the file names, the numbers and the separators */
+	boolean color;
+
+	Mode mode = Mode.LINES;
+
+	/* a file is no longer read once that many lines matched */
+	long maximumCount = Long.MAX_VALUE;
+
+	/* the directories that have a trigram index only have their candidate files read */
+	boolean useIndex;
+
+	/* regular files of at least that many bytes are mapped instead of read */
+	boolean mapFiles = true;
+	long mappingThreshold = MAPPING_THRESHOLD;
+
+	/* only standard input and the files without a size, whose lines can be endless, are split into pieces */
+	int streamMaximumLineLength = LineReader.STREAM_MAXIMUM_LINE_LENGTH;
+
+	/* what the search did, only recorded when set */
+	Statistics statistics;
+
+	private LineFormat format;
+	private byte[] required;
+	private ForkJoinPool pool;
+	private ExecutorService readers;
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+	private long readAheadBytes;
+	private int workerScans;
+	private long lineNumberBase;
+	private long fileMatchCount;
+	private boolean found;
+
+	/*
+	 * Nothing more has to be read, the answer is known: set by the worker that finds the first match in quiet mode, and
+	 * checked by the walker, the readers and the workers still scanning.
+	 */
+	private volatile boolean stopped;
+
+	@SneakyThrows
+	boolean run(List<String> filePaths, boolean recurse) {
+		format = new LineFormat(printLineNumber, printByteOffset, color);
+		required = requiredBytes(patterns);
+
+		if (jobs > 1) {
+			pool = new ForkJoinPool(jobs);
+			readers = Executors.newVirtualThreadPerTaskExecutor();
+		}
+
+		try {
+			for (final var filePath : filePaths) {
+				if (stopped) {
+					break;
+				}
+
+				final var path = Path.of(filePath);
+
+				if (Files.isDirectory(path)) {
+					if (recurse) {
+						Files.walkFileTree(path, new Walker(path));
+					}
+				} else {
+					submit(path, filePath);
+				}
+			}
+
+			drain(true);
+			output.flush();
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+				readers.shutdownNow();
+			}
+		}
+
+		return found;
+	}
+
+	/*
+	 * Reads until the end of the stream, which may never come: matches are written before blocking on the next read,
+	 * and the reader only ever holds one buffer of input.
+	 */
+	@SneakyThrows
+	boolean run(ReadableByteChannel channel) {
+		format = new LineFormat(printLineNumber, printByteOffset, color);
+
+		final var lines = new LineReader(channel);
+		lines.maximumLineLength = streamMaximumLineLength;
+		lines.beforeRead = output;
+
+		LineSink sink = null;
+		if (mode == Mode.LINES) {
+			sink = (lineNumber, offset, array, start, end) -> {
+				format.write(output, null, lineNumber, offset, array, start, end);
+			};
+		}
+
+		final var result = scan(lines, sink);
+		endFile(format.fileName(STANDARD_INPUT_NAME), null, result.matchCount());
+
+		return found;
+	}
+
+	private void submit(Path path, String displayName) throws IOException {
+		if (stopped) {
+			return;
+		}
+
+		final var name = format.fileName(displayName);
+
+		byte[] prefix = null;
+		if (printFileName) {
+			prefix = format.prefix(displayName);
+		}
+
+		if (pool == null) {
+			final var filePrefix = prefix;
+
+			LineSink sink = null;
+			if (mode == Mode.LINES) {
+				sink = (lineNumber, offset, array, start, end) -> {
+					format.write(output, filePrefix, lineNumber, offset, array, start, end);
+				};
+			}
+
+			final var result = scan(path, 0, Long.MAX_VALUE, sink);
+			endFile(name, prefix, result.matchCount());
+
+			return;
+		}
+
+		/* the chunks of a file would all be read, even after the file has matched enough lines */
+		final var size = Files.isRegularFile(path) ? Files.size(path) : 0;
+		if (size < chunkSize * 2 || mode.stopsAtFirstMatch || maximumCount != Long.MAX_VALUE) {
+			/* files without a size, like the ones of /proc, are read until their end */
+			if (size != 0 && size < READ_AHEAD_LIMIT) {
+				submitReadAhead(path, (int) size, name, prefix);
+			} else {
+				submit(path, 0, Long.MAX_VALUE, name, prefix, true, true);
+			}
+
+			return;
+		}
+
+		final var boundaries = findChunkBoundaries(path, size, chunkSize);
+		for (var index = 0; index < boundaries.length - 1; ++index) {
+			final var start = boundaries[index];
+			final var length = boundaries[index + 1] - start;
+
+			submit(path, start, length, name, prefix, index == 0, index == boundaries.length - 2);
+		}
+	}
+
+	/* a file that cannot match is still reported, as one without any matching line */
+	private void skip(String displayName) throws IOException {
+		if (stopped) {
+			return;
+		}
+
+		final var name = format.fileName(displayName);
+
+		byte[] prefix = null;
+		if (printFileName) {
+			prefix = format.prefix(displayName);
+		}
+
+		if (statistics != null) {
+			++statistics.skippedFiles;
+		}
+
+		if (pool == null) {
+			endFile(name, prefix, 0);
+			return;
+		}
+
+		add(new Pending(CompletableFuture.completedFuture(new Result(0, 0, null, name, prefix, true, true)), 0, false));
+	}
+
+	/* the worker reads what it scans, by mapping it or a buffer at a time */
+	private void submit(Path path, long start, long length, byte[] name, byte[] prefix, boolean startsFile, boolean endsFile) {
+		final var result = pool.submit(() -> {
+			final var matches = mode == Mode.LINES ? new MatchBuffer() : null;
+			final var scanned = scan(path, start, length, matches != null ? matches::add : null);
+
+			return new Result(scanned.matchCount(), scanned.lineCount(), matches, name, prefix, startsFile, endsFile);
+		});
+
+		add(new Pending(result, 0, true));
+	}
+
+	/* a reader reads the whole file, a worker then scans it in memory */
+	private void submitReadAhead(Path path, int size, byte[] name, byte[] prefix) {
+		final var result = CompletableFuture.supplyAsync(() -> readAhead(path, size), readers)
+			.thenApplyAsync((buffer) -> {
+				final var matches = mode == Mode.LINES ? new MatchBuffer() : null;
+				final var scanned = scan(new LineReader(buffer.array(), buffer.position()), matches != null ? matches::add : null);
+
+				return new Result(scanned.matchCount(), scanned.lineCount(), matches, name, prefix, true, true);
+			}, pool);
+
+		add(new Pending(result, size, false));
+	}
+
+	@SneakyThrows
+	private ByteBuffer readAhead(Path path, int size) {
+		if (stopped) {
+			return ByteBuffer.allocate(0);
+		}
+
+		final var startTime = System.nanoTime();
+
+		final var buffer = ByteBuffer.allocate(size);
+
+		try (
+			final var channel = FileChannel.open(path)
+		) {
+			/* a file that shrank since its size was known is read until its end */
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+			}
+		}
+
+		if (statistics != null) {
+			statistics.readAheadFiles.increment();
+			statistics.readNanos.add(System.nanoTime() - startTime);
+		}
+
+		return buffer;
+	}
+
+	private void add(Pending entry) {
+		pending.add(entry);
+		readAheadBytes += entry.readAheadBytes();
+		if (entry.scannedByWorker()) {
+			++workerScans;
+		}
+
+		if (statistics != null) {
+			statistics.recordDepth(pending.size(), readAheadBytes);
+		}
+
+		drain(false);
+	}
+
+	/* whether the writer has to catch up before anything else is read or scanned */
+	private boolean isFull() {
+		return pending.size() > READ_AHEAD_FILES || readAheadBytes > READ_AHEAD_BYTES || workerScans > jobs * PENDING_PER_JOB;
+	}
+
+	/*
+	 * Results are written in submission order, a file's lines are therefore never interleaved with another's.
+	 * Chunks only know their line numbers relative to their own start, the line count of every previous chunk of the
+	 * same file is added back here.
+	 */
+	@SneakyThrows
+	private void drain(boolean everything) {
+		/* the results that are already there are written right away, so are the names of the files that matched */
+		while (!pending.isEmpty() && (everything || stopped || isFull() || pending.peek().result().isDone())) {
+			/* the files still being scanned are abandoned */
+			if (stopped) {
+				found = true;
+
+				pending.clear();
+				readAheadBytes = 0;
+				workerScans = 0;
+
+				return;
+			}
+
+			final var entry = pending.poll();
+			readAheadBytes -= entry.readAheadBytes();
+			if (entry.scannedByWorker()) {
+				--workerScans;
+			}
+
+			final var waitStartTime = statistics != null ? System.nanoTime() : 0;
+			final Result result;
+
+			try {
+				result = entry.result().get();
+			} catch (ExecutionException exception) {
+				throw exception.getCause();
+			}
+
+			if (statistics != null) {
+				statistics.waitNanos += System.nanoTime() - waitStartTime;
+			}
+
+			if (result.startsFile()) {
+				lineNumberBase = 0;
+				fileMatchCount = 0;
+			}
+
+			if (result.matches() != null) {
+				result.matches().writeTo(output, format, result.prefix(), lineNumberBase);
+			}
+
+			lineNumberBase += result.lineCount();
+			fileMatchCount += result.matchCount();
+
+			if (result.endsFile()) {
+				endFile(result.name(), result.prefix(), fileMatchCount);
+			}
+		}
+	}
+
+	/* the lines have already been written, only what is written once per file is left */
+	private void endFile(byte[] name, byte[] prefix, long matchCount) throws IOException {
+		final var matched = matchCount != 0;
+
+		if (statistics != null) {
+			++statistics.files;
+		}
+
+		switch (mode) {
+			case LINES -> found |= matched;
+
+			case COUNT -> {
+				if (prefix != null) {
+					output.write(prefix);
+				}
+
+				output.writeNumber(matchCount);
+				output.endLine();
+
+				found |= matched;
+			}
+
+			case FILES_WITH_MATCHES, FILES_WITHOUT_MATCH -> {
+				if (matched == (mode == Mode.FILES_WITH_MATCHES)) {
+					output.write(name);
+					output.endLine();
+
+					found = true;
+				}
+			}
+
+			case QUIET -> {
+				found |= matched;
+				stopped = found;
+			}
+		}
+
+		output.flush();
+	}
+
+	/*
+	 * A mapping is unmapped as soon as its file is scanned, by closing its arena: walking many files does not wait for
+	 * the garbage collector to give their address space back. Pipes, and the files of /proc that have no size, are read.
+	 */
+	Result scan(Path path, long start, long length, LineSink sink) throws IOException {
+		try (
+			final var channel = FileChannel.open(path)
+		) {
+			final var size = channel.size();
+
+			if (mapFiles && size != 0 && size >= mappingThreshold && start < size) {
+				try (
+					final var arena = Arena.ofConfined()
+				) {
+					final var mapping = channel.map(MapMode.READ_ONLY, start, Math.min(length, size - start), arena);
+					if (statistics != null) {
+						statistics.mappedFiles.increment();
+					}
+
+					final var lines = new LineReader(mapping, LineReader.DEFAULT_CAPACITY);
+					lines.baseOffset = start;
+					lines.required = required;
+
+					return scan(lines, sink);
+				}
+			}
+
+			if (start != 0) {
+				channel.position(start);
+			}
+
+			final var lines = new LineReader(channel, LineReader.DEFAULT_CAPACITY, length);
+			lines.baseOffset = start;
+
+			if (size == 0) {
+				lines.maximumLineLength = streamMaximumLineLength;
+			}
+
+			return scan(lines, sink);
+		}
+	}
+
+	/* without a sink, the matching lines are only counted */
+	@SneakyThrows
+	Result scan(LineReader lines, LineSink sink) {
+		final var startTime = statistics != null ? System.nanoTime() : 0;
+		final var matcher = patterns.matcher();
+
+		Spans spans = null;
+		if (sink != null && (onlyMatching || color)) {
+			spans = new Spans();
+		}
+
+		var limit = maximumCount;
+		if (mode.stopsAtFirstMatch) {
+			limit = Math.min(limit, 1);
+		}
+
+		var matchCount = 0L;
+		while (matchCount < limit && !stopped && lines.next()) {
+			if (spans != null) {
+				if (spans.select(matcher, lines)) {
+					spans.write(matcher, lines, sink);
+					++matchCount;
+				}
+			} else if (sink == null || !printPattern) {
+				/* lines that are not ascii are searched as UTF-8 bytes, without being decoded */
+				final var matches = lines.isAscii()
+					? matcher.reset(lines.text()).find()
+					: matcher.findUtf8(lines.array(), lines.start(), lines.end());
+
+				if (matches) {
+					if (sink != null) {
+						sink.accept(lines.lineNumber(), lines.offset(), lines.array(), lines.start(), lines.end());
+					}
+
+					++matchCount;
+				}
+			} else if (matcher.reset(lines.text()).findAll()) {
+				final var line = withPatterns(matcher, lines.array(), lines.start(), lines.end());
+
+				sink.accept(lines.lineNumber(), lines.offset(), line, 0, line.length);
+				++matchCount;
+			}
+		}
+
+		if (mode == Mode.QUIET && matchCount != 0) {
+			stopped = true;
+		}
+
+		if (statistics != null) {
+			statistics.record(System.nanoTime() - startTime, lines.bytesRead(), lines.lineNumber(), matchCount);
+		}
+
+		return new Result(matchCount, lines.lineNumber(), null, null, null, true, true);
+	}
+
+	/* every chunk but the first starts right after a newline */
+	static long[] findChunkBoundaries(Path path, long size, long chunkSize) throws IOException {
+		final var count = (int) Math.ceilDiv(size, chunkSize);
+
+		final var boundaries = new long[count + 1];
+		var boundaryCount = 1;
+
+		try (
+			final var channel = FileChannel.open(path)
+		) {
+			final var buffer = ByteBuffer.allocate(BOUNDARY_PROBE_SIZE);
+
+			for (var index = 1; index < count; ++index) {
+				var position = Math.max(index * chunkSize, boundaries[boundaryCount - 1]);
+				var boundary = size;
+
+				search: while (position < size) {
+					buffer.clear();
+
+					final var read = channel.read(buffer, position);
+					if (read <= 0) {
+						break;
+					}
+
+					for (var offset = 0; offset < read; ++offset) {
+						if (buffer.get(offset) == '\n') {
+							boundary = position + offset + 1;
+							break search;
+						}
+					}
+
+					position += read;
+				}
+
+				if (boundary < size && boundary > boundaries[boundaryCount - 1]) {
+					boundaries[boundaryCount++] = boundary;
+				}
+			}
+		}
+
+		boundaries[boundaryCount++] = size;
+
+		return Arrays.copyOf(boundaries, boundaryCount);
+	}
+
+	/*
+	 * The UTF-8 bytes of the longest literal that every match of a single pattern holds. Malformed bytes are searched as
+	 * U+FFFD, a literal that has one may be matched by bytes that do not hold its encoding.
+	 */
+	static byte[] requiredBytes(PatternSet patterns) {
+		if (patterns.single == null) {
+			return null;
+		}
+
+		final var literal = patterns.single.required != null ? patterns.single.required : patterns.single.prefix;
+		if (literal == null || literal.value.indexOf('\uFFFD') != -1) {
+			return null;
+		}
+
+		return literal.value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static byte[] withPatterns(SetMatcher matcher, byte[] array, int start, int end) {
+		final var label = (matcher.hitExpressions() + ":").getBytes(StandardCharsets.UTF_8);
+
+		final var line = Arrays.copyOf(label, label.length + end - start);
+		System.arraycopy(array, start, line, label.length, end - start);
+
+		return line;
+	}
+
+	@FunctionalInterface
+	static interface LineSink {
+
+		void accept(long lineNumber, long offset, byte[] array, int start, int end) throws IOException;
+
+	}
+
+	/*
+	 * Finds where the matches of a selected line are, to write only them or to highlight them. Matches are found in
+	 * characters: ascii lines are searched in place, where a character is a byte, and other lines are decoded along with
+	 * the offset of every character so that the matches are still written from the bytes that were read.
+	 */
+	private class Spans {
+
+		private char[] characters = new char[0];
+		private int[] offsets = new int[0];
+		private boolean ascii;
+
+		/* a match, or a highlighted line, with what has to be written around it */
+		private byte[] bytes = new byte[256];
+		private int size;
+
+		boolean select(SetMatcher matcher, LineReader lines) {
+			final var start = lines.start();
+			final var end = lines.end();
+
+			ascii = lines.isAscii();
+
+			CharSequence text;
+			if (ascii) {
+				text = lines.text();
+			} else {
+				if (characters.length <= end - start) {
+					characters = new char[end - start + 1];
+					offsets = new int[end - start + 1];
+				}
+
+				final var count = Utf8Compiler.decode(lines.array(), start, end, characters, offsets);
+				text = new String(characters, 0, count);
+			}
+
+			matcher.reset(text);
+
+			return printPattern ? matcher.findAll() : matcher.find();
+		}
+
+		void write(SetMatcher matcher, LineReader lines, LineSink sink) throws IOException {
+			final var array = lines.array();
+			final var start = lines.start();
+
+			byte[] label = null;
+			if (printPattern) {
+				label = (matcher.hitExpressions() + ":").getBytes(StandardCharsets.UTF_8);
+			}
+
+			size = 0;
+			if (!onlyMatching && label != null) {
+				append(label, 0, label.length);
+			}
+
+			var previous = start;
+
+			while (matcher.nextMatch()) {
+				/* an empty match has nothing to show */
+				if (matcher.start() == matcher.end()) {
+					continue;
+				}
+
+				final var matchStart = start + toByte(matcher.start());
+				final var matchEnd = start + toByte(matcher.end());
+				final var offset = lines.offset() + matchStart - start;
+
+				if (!onlyMatching) {
+					append(array, previous, matchStart);
+					appendMatch(array, matchStart, matchEnd);
+
+					previous = matchEnd;
+				} else if (!color && label == null) {
+					sink.accept(lines.lineNumber(), offset, array, matchStart, matchEnd);
+				} else {
+					size = 0;
+					if (label != null) {
+						append(label, 0, label.length);
+					}
+
+					appendMatch(array, matchStart, matchEnd);
+
+					sink.accept(lines.lineNumber(), offset, bytes, 0, size);
+				}
+			}
+
+			if (!onlyMatching) {
+				append(array, previous, lines.end());
+
+				sink.accept(lines.lineNumber(), lines.offset(), bytes, 0, size);
+			}
+		}
+
+		private int toByte(int index) {
+			return ascii ? index : offsets[index];
+		}
+
+		private void appendMatch(byte[] array, int start, int end) {
+			if (color) {
+				append(LineFormat.MATCH_COLOR, 0, LineFormat.MATCH_COLOR.length);
+				append(array, start, end);
+				append(LineFormat.END_COLOR, 0, LineFormat.END_COLOR.length);
+			} else {
+				append(array, start, end);
+			}
+		}
+
+		private void append(byte[] array, int start, int end) {
+			final var length = end - start;
+
+			if (size + length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+			}
+
+			System.arraycopy(array, start, bytes, size, length);
+			size += length;
+		}
+
+	}
+
+	private class Walker extends SimpleFileVisitor<Path> {
+
+		private final Path directory;
+		private final TrigramIndex index;
+		private BitSet candidates;
+
+		Walker(Path directory) {
+			this.directory = directory;
+			this.index = useIndex ? TrigramIndex.open(directory) : null;
+		}
+
+		@Override
+		@SneakyThrows
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+			if (attributes.isRegularFile() && !(index != null && TrigramIndex.isIndexFile(directory, file))) {
+				final var displayName = file.normalize().toString();
+
+				if (index == null || index.mayMatch(TrigramIndex.relativePath(directory, file), attributes, candidates())) {
+					submit(file, displayName);
+				} else {
+					skip(displayName);
+				}
+			}
+
+			return stopped ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+		}
+
+		/* only queried once there is a file to search */
+		private BitSet candidates() throws IOException {
+			if (candidates == null) {
+				candidates = index.candidates(TrigramQuery.of(patterns));
+			}
+
+			return candidates;
+		}
+
+	}
+
+	private record Pending(
+		Future<Result> result,
+		long readAheadBytes,
+		boolean scannedByWorker
+	) {}
+
+	record Result(
+		long matchCount,
+		long lineCount,
+		MatchBuffer matches,
+		byte[] name,
+		byte[] prefix,
+		boolean startsFile,
+		boolean endsFile
+	) {}
+
+	@RequiredArgsConstructor
+	enum Mode {
+
+		/* the matching lines */
+		LINES(false),
+
+		/* how many lines matched in every file */
+		COUNT(false),
+
+		/* the names of the files with a matching line */
+		FILES_WITH_MATCHES(true),
+
+		/* the names of the files without any */
+		FILES_WITHOUT_MATCH(true),
+
+		/* nothing, only whether anything matched */
+		QUIET(true);
+
+		final boolean stopsAtFirstMatch;
+
+	}
+
+}
@@ -0,0 +1,510 @@
+package grep;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/*
+ * Unanchored subset-construction of the compiled program, built one transition at a time while searching.
+ * Transitions for characters below 256 are cached in the states, which are shared between all threads using the
+ * same pattern: a state is immutable once published, and a racing write of a transition only ever stores an equal
+ * state.
+ * The match instructions carry the id of the pattern they end, so that a union of programs can tell which ones were
+ * matched.
+ * An anchored automaton does not start a new match at every position, it only follows the one that started where it
+ * was run from.
+ */
+class LazyDfa {
+
+	static final int MAXIMUM_STATES = 10_000;
+	static final int CACHED_CHARACTERS = 256;
+
+	final Program program;
+	final Literal prefix;
+	final boolean anchored;
+
+	private final int[] unanchored;
+	private final State initial;
+	private final State unanchoredInitial;
+	private final int[] emptyMatches;
+
+	/* the bytes that can start a match, when they are few enough to be worth skipping to with a vector scan */
+	private final ByteClass starts;
+
+	private final Map<Threads, State> states = new ConcurrentHashMap<>();
+
+	/* the scratch buffers of the subset construction, the automaton itself being shared between threads */
+	private final ThreadLocal<Closure> closures = ThreadLocal.withInitial(Closure::new);
+
+	LazyDfa(Program program, Literal prefix) {
+		this(program, prefix, false);
+	}
+
+	LazyDfa(Program program, Literal prefix, boolean anchored) {
+		if (program.hasBackReferences) {
+			throw new IllegalArgumentException("back-references cannot be matched by a DFA");
+		}
+
+		if (program.hasAtomicGroups) {
+			throw new IllegalArgumentException("atomic groups cannot be matched by a DFA");
+		}
+
+		this.program = program;
+		this.prefix = prefix;
+		this.anchored = anchored;
+
+		final var closure = closures.get();
+
+		closure.add(0, false, false);
+		this.unanchored = closure.toArray();
+		this.unanchoredInitial = intern(new Threads(unanchored, unanchored.length));
+
+		closure.add(0, true, false);
+		this.initial = intern(closure.collect());
+
+		this.emptyMatches = matchesAtEnd(initial.threads, true);
+		this.starts = findStarts();
+	}
+
+	boolean find(CharSequence sequence, int begin, int from, int to) {
+		var state = from == begin ? initial : unanchoredInitial;
+		if (state.match) {
+			return true;
+		}
+
+		if (from == to) {
+			if (from == begin) {
+				return emptyMatches.length != 0;
+			}
+
+			return state.endMatch;
+		}
+
+		for (var index = from; index < to; ++index) {
+			/* no match is in progress, so the next one can only start where the prefix does */
+			if (state == unanchoredInitial && prefix != null) {
+				index = prefix.indexOf(sequence, index, to);
+
+				if (index == -1) {
+					return false;
+				}
+			} else if (state == unanchoredInitial && starts != null && sequence instanceof ByteSequence bytes) {
+				/* every other byte leads back to the same state */
+				final var offset = bytes.start();
+
+				index = ByteScan.indexOfAny(bytes.array(), offset + index, offset + to, starts);
+				if (index == -1) {
+					return state.endMatch;
+				}
+
+				index -= offset;
+			}
+
+			final var character = sequence.charAt(index);
+
+			State next = null;
+			if (character < CACHED_CHARACTERS) {
+				next = state.transitions[character];
+			}
+
+			if (next == null) {
+				next = step(state, character);
+			}
+
+			state = next;
+			if (state.match) {
+				return true;
+			}
+
+			if (state.dead) {
+				return false;
+			}
+		}
+
+		return state.endMatch;
+	}
+
+	/* reports the id of every pattern that matches somewhere in the range, possibly more than once */
+	void findAll(CharSequence sequence, int begin, int from, int to, IntConsumer matches) {
+		var state = from == begin ? initial : unanchoredInitial;
+
+		if (from == to) {
+			report(from == begin ? emptyMatches : state.endMatches, matches);
+			return;
+		}
+
+		report(state.matches, matches);
+
+		for (var index = from; index < to; ++index) {
+			final var character = sequence.charAt(index);
+
+			State next = null;
+			if (character < CACHED_CHARACTERS) {
+				next = state.transitions[character];
+			}
+
+			if (next == null) {
+				next = step(state, character);
+			}
+
+			state = next;
+			report(state.matches, matches);
+
+			if (state.dead) {
+				return;
+			}
+		}
+
+		report(state.endMatches, matches);
+	}
+
+	/*
+	 * Runs the automaton of a reversed program from to back to from, and marks every position at which it matches:
+	 * where a match of the original program starts. `$` of the original program holds at to, and `^` at begin.
+	 */
+	void findStarts(CharSequence sequence, int begin, int from, int to, BitSet starts) {
+		var state = initial;
+
+		for (var index = to; ; --index) {
+			final boolean match;
+			if (index == begin) {
+				match = index == to ? emptyMatches.length != 0 : state.endMatch;
+			} else {
+				match = state.match;
+			}
+
+			if (match) {
+				starts.set(index);
+			}
+
+			if (index == from || state.dead) {
+				return;
+			}
+
+			state = transition(state, sequence.charAt(index - 1));
+		}
+	}
+
+	/* the end of the longest match that starts at from, or -1; only for an anchored automaton */
+	int findLongestEnd(CharSequence sequence, int begin, int from, int to) {
+		var state = from == begin ? initial : unanchoredInitial;
+
+		if (from == to) {
+			final var match = from == begin ? emptyMatches.length != 0 : state.endMatch;
+
+			return match ? from : -1;
+		}
+
+		var end = state.match ? from : -1;
+		for (var index = from; index < to; ++index) {
+			state = transition(state, sequence.charAt(index));
+
+			if (state.dead) {
+				return end;
+			}
+
+			if (state.match) {
+				end = index + 1;
+			}
+		}
+
+		return state.endMatch ? to : end;
+	}
+
+	private State transition(State state, char character) {
+		State next = null;
+		if (character < CACHED_CHARACTERS) {
+			next = state.transitions[character];
+		}
+
+		if (next == null) {
+			next = step(state, character);
+		}
+
+		return next;
+	}
+
+	private static void report(int[] ids, IntConsumer matches) {
+		for (final var id : ids) {
+			matches.accept(id);
+		}
+	}
+
+	private ByteClass findStarts() {
+		if (!ByteScan.VECTORIZED || anchored || unanchoredInitial.match) {
+			return null;
+		}
+
+		final var table = new boolean[CACHED_CHARACTERS];
+		var size = 0;
+
+		for (var character = 0; character < CACHED_CHARACTERS; ++character) {
+			if (step(unanchoredInitial, (char) character) != unanchoredInitial) {
+				table[character] = true;
+				++size;
+			}
+		}
+
+		final var starts = ByteClass.of(table);
+		if (size > CACHED_CHARACTERS / 4 || !ByteScan.isVectorizable(starts)) {
+			return null;
+		}
+
+		return starts;
+	}
+
+	int stateCount() {
+		return states.size();
+	}
+
+	private State step(State state, char character) {
+		final var opcodes = program.opcodes;
+		final var operands = program.operands;
+		final var predicates = program.predicates;
+
+		final var closure = closures.get();
+		for (final var pc : state.threads) {
+			switch (opcodes[pc]) {
+				case Program.CHAR -> {
+					if (predicates[operands[pc]].test(character)) {
+						closure.add(pc + 1, false, false);
+					}
+				}
+
+				/* only the unbounded runs of rewritten loops get here, they keep looping on the same instruction */
+				case Program.RUN -> {
+					if (predicates[operands[pc]].test(character)) {
+						closure.add(pc, false, false);
+					}
+				}
+			}
+		}
+
+		if (!anchored) {
+			for (final var pc : unanchored) {
+				closure.mark(pc);
+			}
+		}
+
+		final var next = intern(closure.collect());
+		if (character < CACHED_CHARACTERS && next.cached) {
+			state.transitions[character] = next;
+		}
+
+		return next;
+	}
+
+	/* the threads may be the scratch buffer of the closure, they are only copied for a state that is not known yet */
+	private State intern(Threads threads) {
+		final var existing = states.get(threads);
+		if (existing != null) {
+			return existing;
+		}
+
+		final var copy = Arrays.copyOf(threads.pcs, threads.length);
+		final var endMatches = matchesAtEnd(copy, false);
+
+		if (states.size() >= MAXIMUM_STATES) {
+			return new State(copy, program, endMatches, false);
+		}
+
+		final var candidate = new State(copy, program, endMatches, true);
+
+		final var previous = states.putIfAbsent(new Threads(copy, copy.length), candidate);
+		if (previous != null) {
+			return previous;
+		}
+
+		return candidate;
+	}
+
+	private int[] matchesAtEnd(int[] threads, boolean atBegin) {
+		final var closure = closures.get();
+
+		for (final var pc : threads) {
+			switch (program.opcodes[pc]) {
+				case Program.MATCH -> closure.mark(pc);
+				case Program.END -> closure.add(pc + 1, atBegin, true);
+			}
+		}
+
+		return matchIds(closure.toArray(), program);
+	}
+
+	private static int[] matchIds(int[] threads, Program program) {
+		return Arrays.stream(threads)
+			.filter((pc) -> program.opcodes[pc] == Program.MATCH)
+			.map((pc) -> program.operands[pc])
+			.distinct()
+			.toArray();
+	}
+
+	static final class State {
+
+		final int[] threads;
+		final int[] matches;
+		final int[] endMatches;
+		final boolean match;
+		final boolean dead;
+		final boolean endMatch;
+		final boolean cached;
+		final State[] transitions;
+
+		State(int[] threads, Program program, int[] endMatches, boolean cached) {
+			this.threads = threads;
+			this.matches = matchIds(threads, program);
+			this.endMatches = endMatches;
+			this.cached = cached;
+			this.transitions = cached ? new State[CACHED_CHARACTERS] : null;
+
+			this.match = matches.length != 0;
+			this.endMatch = endMatches.length != 0;
+			this.dead = threads.length == 0;
+		}
+
+	}
+
+	/*
+	 * The key of a state, which can also look one up from the first instructions of a longer buffer.
+	 * Only the key of a closure is ever set again, the keys in the map never change.
+	 */
+	static final class Threads {
+
+		int[] pcs;
+		int length;
+
+		private int hashCode;
+
+		Threads(int[] pcs, int length) {
+			set(pcs, length);
+		}
+
+		Threads set(int[] pcs, int length) {
+			this.pcs = pcs;
+			this.length = length;
+
+			var hashCode = 1;
+			for (var index = 0; index < length; ++index) {
+				hashCode = 31 * hashCode + pcs[index];
+			}
+
+			this.hashCode = hashCode;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Threads other && Arrays.equals(pcs, 0, length, other.pcs, 0, other.length);
+		}
+
+	}
+
+	/* follows every epsilon transition and only keeps the instructions that need input to be resolved */
+	class Closure {
+
+		private final boolean[] visited;
+		private final boolean[] kept;
+		private final int[] stack;
+		private final int[] threads;
+		private final Threads key = new Threads(null, 0);
+		private int count;
+
+		Closure() {
+			final var size = program.size();
+
+			this.visited = new boolean[size];
+			this.kept = new boolean[size];
+			this.stack = new int[size * 2 + 1];
+			this.threads = new int[size];
+		}
+
+		void add(int start, boolean atBegin, boolean atEnd) {
+			final var opcodes = program.opcodes;
+			final var operands = program.operands;
+
+			var depth = 0;
+			stack[depth++] = start;
+
+			while (depth != 0) {
+				final var pc = stack[--depth];
+				if (visited[pc]) {
+					continue;
+				}
+
+				visited[pc] = true;
+
+				switch (opcodes[pc]) {
+					case Program.CHAR, Program.MATCH -> mark(pc);
+
+					case Program.RUN -> {
+						mark(pc);
+						stack[depth++] = pc + 1;
+					}
+
+					case Program.SPLIT -> {
+						stack[depth++] = program.alternates[pc];
+						stack[depth++] = operands[pc];
+					}
+
+					case Program.JUMP -> stack[depth++] = operands[pc];
+
+					case Program.BEGIN -> {
+						if (atBegin) {
+							stack[depth++] = pc + 1;
+						}
+					}
+
+					case Program.END -> {
+						if (atEnd) {
+							stack[depth++] = pc + 1;
+						} else {
+							mark(pc);
+						}
+					}
+
+					case Program.SAVE, Program.PROGRESS -> stack[depth++] = pc + 1;
+				}
+			}
+		}
+
+		void mark(int pc) {
+			if (!kept[pc]) {
+				kept[pc] = true;
+				++count;
+			}
+		}
+
+		int[] toArray() {
+			final var threads = collect();
+
+			return Arrays.copyOf(threads.pcs, threads.length);
+		}
+
+		/* the kept instructions in order, in a buffer that is overwritten by the next closure of this thread */
+		Threads collect() {
+			final var length = count;
+
+			var index = 0;
+			for (var pc = 0; pc < kept.length; ++pc) {
+				if (kept[pc]) {
+					threads[index++] = pc;
+				}
+			}
+
+			Arrays.fill(visited, false);
+			Arrays.fill(kept, false);
+			count = 0;
+
+			return key.set(threads, length);
+		}
+
+	}
+
+}
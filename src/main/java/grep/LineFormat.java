@@ -0,0 +1,93 @@
+package grep;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * How a selected line, or a match of it, is written: after the name of its file, its line number and its byte offset.
+ * The colors are the default ones of GNU grep, each one being followed by an erase to the end of the line so that the
+ * background does not bleed on terminals that wrap.
+ */
+record LineFormat(
+	boolean printLineNumber,
+	boolean printByteOffset,
+	boolean color
+) {
+
+	static final byte[] MATCH_COLOR = sgr("01;31");
+	static final byte[] END_COLOR = sgr("");
+
+	private static final byte[] FILE_NAME_COLOR = sgr("35");
+	private static final byte[] NUMBER_COLOR = sgr("32");
+	private static final byte[] SEPARATOR = ":".getBytes();
+	private static final byte[] COLORED_SEPARATOR = concat(sgr("36"), SEPARATOR, END_COLOR);
+
+	byte[] fileName(String name) {
+		final var bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (!color) {
+			return bytes;
+		}
+
+		return concat(FILE_NAME_COLOR, bytes, END_COLOR);
+	}
+
+	/* the file name and its separator, written before every line */
+	byte[] prefix(String name) {
+		return concat(fileName(name), separator());
+	}
+
+	void write(Output output, byte[] prefix, long lineNumber, long offset, byte[] array, int start, int end) throws IOException {
+		if (prefix != null) {
+			output.write(prefix);
+		}
+
+		if (printLineNumber) {
+			writeNumber(output, lineNumber);
+		}
+
+		if (printByteOffset) {
+			writeNumber(output, offset);
+		}
+
+		output.write(array, start, end - start);
+		output.endLine();
+	}
+
+	private void writeNumber(Output output, long value) throws IOException {
+		if (color) {
+			output.write(NUMBER_COLOR);
+			output.writeNumber(value);
+			output.write(END_COLOR);
+		} else {
+			output.writeNumber(value);
+		}
+
+		output.write(separator());
+	}
+
+	private byte[] separator() {
+		return color ? COLORED_SEPARATOR : SEPARATOR;
+	}
+
+	private static byte[] sgr(String parameters) {
+		return ("\033[" + parameters + "m\033[K").getBytes();
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		var length = 0;
+		for (final var array : arrays) {
+			length += array.length;
+		}
+
+		final var result = new byte[length];
+
+		var position = 0;
+		for (final var array : arrays) {
+			System.arraycopy(array, 0, result, position, array.length);
+			position += array.length;
+		}
+
+		return result;
+	}
+
+}
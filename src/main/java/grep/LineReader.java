@@ -0,0 +1,320 @@
+package grep;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Reads a channel in large chunks and splits it into lines without copying them.
+ * A line is only valid until the next call to next().
+ * The buffer grows to hold long lines, up to the maximum line length: longer lines are returned in pieces that share
+ * the same line number. Only a stream whose end is not known needs a smaller maximum for its memory to stay bounded,
+ * the lines of a file are otherwise always whole.
+ * A mapped file is copied into the buffer instead of being read. Given bytes that every selected line holds, the lines
+ * before their next occurrence are then only counted in the mapping, they are never copied.
+ */
+class LineReader {
+
+	static final int DEFAULT_CAPACITY = 256 * 1024;
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/* a line ends at the first newline, and is ascii when no byte with the high bit comes before it */
+	private static final ByteClass NEWLINE_OR_NON_ASCII = ByteClass.of((character) -> character == '\n' || character >= 0x80);
+
+	/* the largest array that can be allocated */
+	static final int MAXIMUM_LINE_LENGTH = Integer.MAX_VALUE - 8;
+
+	static final int STREAM_MAXIMUM_LINE_LENGTH = 64 * 1024 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final MemorySegment mapping;
+	private final ByteSequence sequence = new ByteSequence();
+	private long remaining;
+
+	private byte[] array;
+	private int position;
+	private int scanned;
+	private int limit;
+	private boolean endOfInput;
+
+	private int start;
+	private int end;
+	private boolean ascii;
+	private boolean highBitSeen;
+	private long lineNumber;
+	private boolean continued;
+
+	/* how many bytes were shifted out of the start of the array */
+	private long discarded;
+
+	int maximumLineLength = MAXIMUM_LINE_LENGTH;
+
+	/* where the first byte read is in the input, for a chunk of a file */
+	long baseOffset;
+
+	/* flushed before every read, as it may block until more input arrives */
+	Flushable beforeRead;
+
+	/* the lines without these bytes are skipped, only when reading a mapping */
+	byte[] required;
+
+	private MemorySegment requiredSegment;
+	private int rarestRequired;
+
+	LineReader(ReadableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+
+	LineReader(ReadableByteChannel channel, int capacity) {
+		this(channel, capacity, Long.MAX_VALUE);
+	}
+
+	/* stops after length bytes, used to read a chunk of a file that continues after it */
+	LineReader(ReadableByteChannel channel, int capacity, long length) {
+		this.channel = channel;
+		this.mapping = null;
+		this.array = new byte[capacity];
+		this.remaining = length;
+	}
+
+	/* the lines of bytes that were already read, without copying them */
+	LineReader(byte[] array, int length) {
+		this.channel = null;
+		this.mapping = null;
+		this.array = array;
+		this.limit = length;
+		this.endOfInput = true;
+	}
+
+	LineReader(MemorySegment mapping, int capacity) {
+		this.channel = null;
+		this.mapping = mapping;
+		this.array = new byte[(int) Math.min(capacity, Math.max(mapping.byteSize(), 1))];
+		this.remaining = mapping.byteSize();
+	}
+
+	boolean next() throws IOException {
+		var nonAscii = false;
+
+		while (true) {
+			final var newline = indexOfNewline(array, scanned, limit);
+			nonAscii |= highBitSeen;
+
+			if (newline != -1) {
+				return emit(newline, newline + 1, !nonAscii, true);
+			}
+
+			scanned = limit;
+
+			if (endOfInput) {
+				if (position == limit) {
+					return false;
+				}
+
+				return emit(limit, limit, !nonAscii, true);
+			}
+
+			if (limit - position >= maximumLineLength) {
+				return emit(limit, limit, !nonAscii, false);
+			}
+
+			if (required != null && mapping != null && !continued && skipToRequired()) {
+				nonAscii = false;
+			}
+
+			fill();
+		}
+	}
+
+	byte[] array() {
+		return array;
+	}
+
+	int start() {
+		return start;
+	}
+
+	int end() {
+		return end;
+	}
+
+	boolean isAscii() {
+		return ascii;
+	}
+
+	/* whether the current line is only the first pieces of a line longer than the maximum */
+	boolean isPartial() {
+		return continued;
+	}
+
+	/* where the current line starts in the input */
+	long offset() {
+		return baseOffset + discarded + start;
+	}
+
+	/* how much of the input was read, or skipped */
+	long bytesRead() {
+		return discarded + limit;
+	}
+
+	/* one-based number of the current line, which is also the number of lines read so far */
+	long lineNumber() {
+		return lineNumber;
+	}
+
+	/* only lines with non-ascii bytes have to be decoded, all others are matched in place */
+	CharSequence text() {
+		if (ascii) {
+			return sequence.set(array, start, end);
+		}
+
+		return new String(array, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private boolean emit(int lineEnd, int nextPosition, boolean ascii, boolean complete) {
+		start = position;
+		end = lineEnd;
+		this.ascii = ascii;
+
+		if (complete && end > start && array[end - 1] == '\r') {
+			--end;
+		}
+
+		position = scanned = nextPosition;
+
+		if (!continued) {
+			++lineNumber;
+		}
+
+		continued = !complete;
+		return true;
+	}
+
+	/*
+	 * Before the buffer is filled again, the lines up to the one that holds the next occurrence are counted in the mapping
+	 * instead of being copied, the end of the mapping standing for the occurrence when there is none. Lines that were
+	 * already copied are read as usual, which keeps it to one search per buffer.
+	 */
+	private boolean skipToRequired() {
+		if (requiredSegment == null) {
+			requiredSegment = MemorySegment.ofArray(required);
+			rarestRequired = ByteScan.rarest(required);
+		}
+
+		final var from = discarded + position;
+		final var size = mapping.byteSize();
+
+		var occurrence = ByteScan.indexOf(mapping, from, size, requiredSegment, rarestRequired);
+		if (occurrence == -1) {
+			occurrence = size;
+		}
+
+		final var newline = ByteScan.lastIndexOf(mapping, from, occurrence, (byte) '\n');
+		if (newline == -1) {
+			return false;
+		}
+
+		final var lineStart = newline + 1;
+		lineNumber += ByteScan.count(mapping, from, lineStart, (byte) '\n');
+
+		discarded = lineStart;
+		position = scanned = limit = 0;
+		remaining = size - lineStart;
+
+		return true;
+	}
+
+	private void fill() throws IOException {
+		if (position != 0) {
+			System.arraycopy(array, position, array, 0, limit - position);
+			discarded += position;
+
+			limit -= position;
+			scanned -= position;
+			position = 0;
+		}
+
+		if (limit == array.length) {
+			array = Arrays.copyOf(array, (int) Math.max(limit + 1, Math.min(array.length * 2L, maximumLineLength)));
+		}
+
+		if (beforeRead != null) {
+			beforeRead.flush();
+		}
+
+		final var length = (int) Math.min(array.length - limit, remaining);
+
+		final int read;
+		if (length == 0) {
+			read = -1;
+		} else if (mapping != null) {
+			MemorySegment.copy(mapping, ValueLayout.JAVA_BYTE, discarded + limit, array, limit, length);
+			read = length;
+		} else {
+			read = channel.read(ByteBuffer.wrap(array, limit, length));
+		}
+
+		if (read == -1) {
+			endOfInput = true;
+		} else {
+			limit += read;
+			remaining -= read;
+		}
+	}
+
+	/* scans a word at a time, see "Determine if a word has a zero byte" from Bit Twiddling Hacks */
+	private int indexOfNewline(byte[] array, int from, int to) {
+		if (ByteScan.VECTORIZED) {
+			final var index = ByteScan.indexOfAny(array, from, to, NEWLINE_OR_NON_ASCII);
+
+			highBitSeen = index != -1 && array[index] != '\n';
+			if (highBitSeen) {
+				return ByteScan.indexOf(array, index, to, (byte) '\n');
+			}
+
+			return index;
+		}
+
+		var high = 0L;
+
+		var index = from;
+		for (; index + Long.BYTES <= to; index += Long.BYTES) {
+			final var word = (long) LONGS.get(array, index);
+			final var masked = word ^ NEWLINES;
+
+			if (((masked - LOW_BITS) & ~masked & HIGH_BITS) != 0) {
+				break;
+			}
+
+			high |= word;
+		}
+
+		var nonAscii = (high & HIGH_BITS) != 0;
+		for (; index < to; ++index) {
+			final var value = array[index];
+
+			if (value == '\n') {
+				highBitSeen = nonAscii;
+				return index;
+			}
+
+			nonAscii |= value < 0;
+		}
+
+		highBitSeen = nonAscii;
+		return -1;
+	}
+
+}
@@ -0,0 +1,118 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* Boyer-Moore-Horspool search of a literal that every match must contain. */
+class Literal {
+
+	private static final int TABLE_SIZE = 256;
+
+	final String value;
+
+	private final int[] shifts;
+	private final int wideShift;
+
+	Literal(String value) {
+		if (value.isEmpty()) {
+			throw new IllegalArgumentException("literal must not be empty");
+		}
+
+		this.value = value;
+
+		final var length = value.length();
+		final var last = length - 1;
+
+		this.shifts = new int[TABLE_SIZE];
+		Arrays.fill(shifts, length);
+
+		var wideShift = length;
+		for (var index = 0; index < last; ++index) {
+			final var character = value.charAt(index);
+
+			if (character < TABLE_SIZE) {
+				shifts[character] = last - index;
+			} else {
+				wideShift = last - index;
+			}
+		}
+
+		this.wideShift = wideShift;
+	}
+
+	int length() {
+		return value.length();
+	}
+
+	/* the same literal, over the UTF-8 bytes of its characters seen as Latin-1 */
+	Literal toUtf8() {
+		final var bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length == value.length()) {
+			return this;
+		}
+
+		return new Literal(new String(bytes, StandardCharsets.ISO_8859_1));
+	}
+
+	int indexOf(CharSequence sequence, int from, int to) {
+		if (sequence instanceof String string) {
+			return string.indexOf(value, from, to);
+		}
+
+		final var length = value.length();
+		if (length == 1) {
+			return indexOf(sequence, value.charAt(0), from, to);
+		}
+
+		final var last = length - 1;
+		final var lastCharacter = value.charAt(last);
+
+		var index = from;
+		while (index + last < to) {
+			final var character = sequence.charAt(index + last);
+
+			if (character == lastCharacter && matchesAt(sequence, index, last)) {
+				return index;
+			}
+
+			index += character < TABLE_SIZE ? shifts[character] : wideShift;
+		}
+
+		return -1;
+	}
+
+	boolean endsAt(CharSequence sequence, int from, int to) {
+		final var start = to - value.length();
+		if (start < from) {
+			return false;
+		}
+
+		return matchesAt(sequence, start, value.length());
+	}
+
+	private boolean matchesAt(CharSequence sequence, int start, int length) {
+		for (var index = 0; index < length; ++index) {
+			if (sequence.charAt(start + index) != value.charAt(index)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static int indexOf(CharSequence sequence, char character, int from, int to) {
+		for (var index = from; index < to; ++index) {
+			if (sequence.charAt(index) == character) {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "Literal{%s}".formatted(value);
+	}
+
+}
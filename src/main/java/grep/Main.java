@@ -1,8 +1,12 @@
 package grep;
 
-import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -15,18 +19,87 @@ import lombok.SneakyThrows;
 
 public class Main {
 
+	private static final String COLOR_PREFIX = "--color=";
+
 	public static void main(String[] args) {
 		final var helpOption = new Option(null, "help", false, "display this help text and exit");
 
 		final var extendedRegexpOption = new Option("E", "extended-regexp", false, "PATTERNS are extended regular expressions");
-		extendedRegexpOption.setRequired(true);
 
 		final var recurseOption = new Option("r", "recursive", false, "how to handle directories recursively");
 
+		final var lineNumberOption = new Option("n", "line-number", false, "print line number with output lines");
+
+		final var jobsOption = new Option("j", "jobs", true, "search NUM files in parallel (default: number of processors)");
+		jobsOption.setArgName("NUM");
+
+		final var regexpOption = new Option("e", "regexp", true, "use PATTERNS for matching");
+		regexpOption.setArgName("PATTERNS");
+
+		final var fileOption = new Option("f", "file", true, "take PATTERNS from FILE");
+		fileOption.setArgName("FILE");
+
+		final var showPatternOption = new Option(null, "show-pattern", false, "print the patterns that matched with output lines");
+
+		final var lineBufferedOption = new Option(null, "line-buffered", false, "flush output on every line");
+
+		final var countOption = new Option("c", "count", false, "print only a count of selected lines per FILE");
+
+		final var filesWithMatchesOption = new Option("l", "files-with-matches", false, "print only names of FILEs with selected lines");
+
+		final var filesWithoutMatchOption = new Option("L", "files-without-match", false, "print only names of FILEs with no selected lines");
+
+		final var quietOption = new Option("q", "quiet", false, "suppress all normal output");
+
+		final var maxCountOption = new Option("m", "max-count", true, "stop after NUM selected lines");
+		maxCountOption.setArgName("NUM");
+
+		final var onlyMatchingOption = new Option("o", "only-matching", false, "show only nonempty parts of lines that match");
+
+		final var byteOffsetOption = new Option("b", "byte-offset", false, "print the byte offset with output lines");
+
+		final var colorOption = new Option(null, "color", false, "use markers to highlight the matching strings, --color=WHEN with WHEN 'always', 'never', or 'auto'");
+
+		final var buildIndexOption = new Option(null, "build-index", true, "index the files of DIR for later recursive searches, and exit");
+		buildIndexOption.setArgName("DIR");
+
+		final var noIndexOption = new Option(null, "no-index", false, "read every file, even in an indexed directory");
+
+		final var noMmapOption = new Option(null, "no-mmap", false, "read large files instead of mapping them in memory");
+
+		final var statsOption = new Option(null, "stats", false, "print throughput and queue statistics on standard error");
+
 		final var options = new Options();
 		options.addOption(helpOption);
 		options.addOption(extendedRegexpOption);
 		options.addOption(recurseOption);
+		options.addOption(lineNumberOption);
+		options.addOption(jobsOption);
+		options.addOption(regexpOption);
+		options.addOption(fileOption);
+		options.addOption(showPatternOption);
+		options.addOption(lineBufferedOption);
+		options.addOption(countOption);
+		options.addOption(filesWithMatchesOption);
+		options.addOption(filesWithoutMatchOption);
+		options.addOption(quietOption);
+		options.addOption(maxCountOption);
+		options.addOption(onlyMatchingOption);
+		options.addOption(byteOffsetOption);
+		options.addOption(colorOption);
+		options.addOption(buildIndexOption);
+		options.addOption(noIndexOption);
+		options.addOption(noMmapOption);
+		options.addOption(statsOption);
+
+		/* only `--color=WHEN` takes a value, `--color PATTERN` must not take the pattern as one */
+		String colorWhen = null;
+		for (var index = 0; index < args.length && !args[index].equals("--"); ++index) {
+			if (args[index].startsWith(COLOR_PREFIX)) {
+				colorWhen = args[index].substring(COLOR_PREFIX.length());
+				args[index] = "--color";
+			}
+		}
 
 		final CommandLine commandLine;
 
@@ -41,8 +114,13 @@ public class Main {
 			throw printUsage(options);
 		}
 
+		if (commandLine.hasOption(buildIndexOption)) {
+			buildIndex(Path.of(commandLine.getOptionValue(buildIndexOption)));
+		}
+
 		final var argList = commandLine.getArgList();
-		if (argList.isEmpty()) {
+		final var hasPatternOption = commandLine.hasOption(regexpOption) || commandLine.hasOption(fileOption);
+		if (argList.isEmpty() && !hasPatternOption) {
 			System.err.println("A PATTERN is required.");
 			throw printUsage(options);
 		}
@@ -52,23 +130,107 @@ public class Main {
 			throw printUsage(options);
 		}
 
-		final var patternString = argList.get(0);
-		final var filePaths = argList.subList(1, argList.size());
+		var jobs = Runtime.getRuntime().availableProcessors();
+		if (commandLine.hasOption(jobsOption)) {
+			try {
+				jobs = Integer.parseInt(commandLine.getOptionValue(jobsOption));
+			} catch (NumberFormatException exception) {
+				jobs = 0;
+			}
+
+			if (jobs < 1) {
+				System.err.println("The -j option requires a positive number.");
+				throw printUsage(options);
+			}
+		}
+
+		var maximumCount = Long.MAX_VALUE;
+		if (commandLine.hasOption(maxCountOption)) {
+			try {
+				maximumCount = Long.parseLong(commandLine.getOptionValue(maxCountOption));
+			} catch (NumberFormatException exception) {
+				maximumCount = -1;
+			}
+
+			if (maximumCount < 0) {
+				System.err.println("The -m option requires a non-negative number.");
+				throw printUsage(options);
+			}
+		}
+
+		var color = false;
+		if (commandLine.hasOption(colorOption)) {
+			switch (colorWhen != null ? colorWhen : "auto") {
+				case "always", "yes", "force" -> color = true;
+				case "never", "no", "none" -> color = false;
+				case "auto", "tty", "if-tty" -> color = Output.isTerminal();
+
+				default -> {
+					System.err.println("The --color option requires 'always', 'never' or 'auto'.");
+					throw printUsage(options);
+				}
+			}
+		}
+
+		/* the options that print less win over the others */
+		var mode = FileSearch.Mode.LINES;
+		if (commandLine.hasOption(quietOption)) {
+			mode = FileSearch.Mode.QUIET;
+		} else if (commandLine.hasOption(filesWithMatchesOption)) {
+			mode = FileSearch.Mode.FILES_WITH_MATCHES;
+		} else if (commandLine.hasOption(filesWithoutMatchOption)) {
+			mode = FileSearch.Mode.FILES_WITHOUT_MATCH;
+		} else if (commandLine.hasOption(countOption)) {
+			mode = FileSearch.Mode.COUNT;
+		}
+
+		final var expressions = new ArrayList<String>();
+		var filePaths = argList;
 
 		var found = false;
 
 		try {
-			final var pattern = Pattern.compile(patternString);
+			if (hasPatternOption) {
+				readPatterns(commandLine, regexpOption, fileOption, expressions);
+			} else {
+				expressions.add(argList.get(0));
+				filePaths = argList.subList(1, argList.size());
+			}
+
+			if (expressions.isEmpty()) {
+				System.exit(1);
+			}
+
+			final var patterns = PatternSet.compile(expressions);
+			final var printLineNumber = commandLine.hasOption(lineNumberOption);
+			final var printPattern = commandLine.hasOption(showPatternOption);
+			final var output = Output.standard(commandLine.hasOption(lineBufferedOption));
+
+			final var recurse = commandLine.hasOption(recurseOption);
+			final var printFileName = recurse || filePaths.size() > 1;
+
+			final var search = new FileSearch(patterns, printFileName, printLineNumber, jobs, output);
+			search.printPattern = printPattern;
+			search.mode = mode;
+			search.maximumCount = maximumCount;
+			search.onlyMatching = commandLine.hasOption(onlyMatchingOption);
+			search.printByteOffset = commandLine.hasOption(byteOffsetOption);
+			search.color = color;
+			search.useIndex = !commandLine.hasOption(noIndexOption);
+			search.mapFiles = !commandLine.hasOption(noMmapOption);
+
+			if (commandLine.hasOption(statsOption)) {
+				search.statistics = new Statistics();
+			}
 
 			if (filePaths.isEmpty()) {
-				found = findFromStdin(pattern);
+				found = search.run(new FileInputStream(FileDescriptor.in).getChannel());
 			} else {
-				final var recurse = commandLine.hasOption(recurseOption);
-				final var printFileName = recurse || filePaths.size() > 1;
+				found = search.run(filePaths, recurse);
+			}
 
-				for (final var filePath : filePaths) {
-					found |= findFromFile(pattern, filePath, recurse, printFileName);
-				}
+			if (search.statistics != null) {
+				search.statistics.print(System.err);
 			}
 		} catch (Exception exception) {
 			exception.printStackTrace();
@@ -82,66 +244,46 @@ public class Main {
 		}
 	}
 
-	@SneakyThrows
-	static boolean findFromStdin(Pattern pattern) {
-		try (
-			final var scanner = new Scanner(System.in)
-		) {
-			final var inputLine = scanner.nextLine();
-
-			return handleMatcher(pattern, inputLine, null);
+	static void buildIndex(Path directory) {
+		if (!Files.isDirectory(directory)) {
+			System.err.println("The --build-index option requires a directory.");
+			System.exit(2);
 		}
-	}
 
-	@SneakyThrows
-	static boolean findFromFile(Pattern pattern, String filePath, boolean recurse, boolean printFileName) {
-		var found = false;
-
-		final var file = new File(filePath);
-		if (file.isDirectory()) {
-			if (!recurse) {
-				return false;
-			}
+		try {
+			final var summary = TrigramIndex.build(directory);
 
-			for (final var innerFile : file.listFiles()) {
-				final var innerRelativeFilePath = new File(file, innerFile.getName()).toPath().normalize().toString();
+			System.out.printf("%s: %d files, %d unchanged, %d trigrams%n", directory.resolve(TrigramIndex.FILE_NAME), summary.fileCount(), summary.reusedCount(), summary.trigramCount());
 
-				found |= findFromFile(pattern, innerRelativeFilePath, recurse, printFileName);
-			}
-		} else {
-			try (
-				final var fileInputStream = new FileInputStream(filePath);
-				final var scanner = new Scanner(fileInputStream)
-			) {
-				if (!printFileName) {
-					filePath = null;
-				}
-
-				while (scanner.hasNextLine()) {
-					final var inputLine = scanner.nextLine();
-
-					found |= handleMatcher(pattern, inputLine, filePath);
-				}
+			if (summary.unreadableCount() != 0) {
+				System.err.printf("%d files could not be read, they are searched without the index%n", summary.unreadableCount());
 			}
+		} catch (Exception exception) {
+			exception.printStackTrace();
+			System.exit(2);
 		}
 
-		return found;
+		System.exit(0);
 	}
 
-	static boolean handleMatcher(Pattern pattern, String inputLine, String filePath) {
-		final var matcher = pattern.matcher(inputLine);
-
-		if (matcher.find(0)) {
-			var message = inputLine;
-			if (filePath != null) {
-				message = "%s:%s".formatted(filePath, message);
+	/*
+	 * Every `-e` may hold several patterns separated by newlines, and every line of a `-f` file is a pattern.
+	 * Empty patterns are kept, even the one after a trailing newline: they match every line.
+	 */
+	static void readPatterns(CommandLine commandLine, Option regexpOption, Option fileOption, List<String> expressions) throws IOException {
+		final var regexps = commandLine.getOptionValues(regexpOption);
+		if (regexps != null) {
+			for (final var regexp : regexps) {
+				expressions.addAll(List.of(regexp.split("\n", -1)));
 			}
-
-			System.out.println(message);
-			return true;
 		}
 
-		return false;
+		final var files = commandLine.getOptionValues(fileOption);
+		if (files != null) {
+			for (final var file : files) {
+				expressions.addAll(Files.readAllLines(Path.of(file)));
+			}
+		}
 	}
 
 	@SneakyThrows
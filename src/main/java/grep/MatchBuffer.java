@@ -0,0 +1,54 @@
+package grep;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Matching lines of a file or of a chunk, kept with their relative line number until they can be written in order. */
+class MatchBuffer {
+
+	private byte[] bytes = new byte[256];
+	private int size;
+
+	private long[] lineNumbers = new long[16];
+	private long[] offsets = new long[16];
+	private int[] ends = new int[16];
+	private int count;
+
+	void add(long lineNumber, long offset, byte[] array, int start, int end) {
+		final var length = end - start;
+
+		if (size + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+		}
+
+		if (count == ends.length) {
+			lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+			offsets = Arrays.copyOf(offsets, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+
+		System.arraycopy(array, start, bytes, size, length);
+		size += length;
+
+		lineNumbers[count] = lineNumber;
+		offsets[count] = offset;
+		ends[count] = size;
+		++count;
+	}
+
+	int count() {
+		return count;
+	}
+
+	void writeTo(Output output, LineFormat format, byte[] prefix, long lineNumberBase) throws IOException {
+		var start = 0;
+
+		for (var index = 0; index < count; ++index) {
+			final var end = ends[index];
+
+			format.write(output, prefix, lineNumberBase + lineNumbers[index], offsets[index], bytes, start, end);
+			start = end;
+		}
+	}
+
+}
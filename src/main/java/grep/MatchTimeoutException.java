@@ -0,0 +1,19 @@
+package grep;
+
+/* Thrown by a matcher whose backtracker ran out of steps or of time, the input is then neither a match nor a mismatch. */
+@SuppressWarnings("serial")
+public class MatchTimeoutException extends RuntimeException {
+
+	private final long steps;
+
+	MatchTimeoutException(String message, long steps) {
+		super(message);
+		this.steps = steps;
+	}
+
+	/* how many instructions the backtracker ran before giving up */
+	public long steps() {
+		return steps;
+	}
+
+}
@@ -1,65 +1,276 @@
 package grep;
 
+import java.time.Duration;
+import java.util.BitSet;
+
+/* The state of a search over one input at a time, a matcher must not be shared between threads. */
 public class Matcher {
 
 	final Pattern pattern;
-	final CharSequence text;
+	final Backtracker backtracker;
+	CharSequence text;
+
+	/* only created once a pattern without an automaton is asked whether there is a match */
+	private Backtracker recognizer;
 
-	final int groupStarts[], groupEnds[];
+	private long stepLimit = Backtracker.UNLIMITED;
+	private long timeoutNanos = Backtracker.UNLIMITED;
 
 	int first, last;
 	int from, to;
 	boolean hitEnd;
 
+	/* where the matches of the current input start, marked once from startsFrom to the end of the region */
+	private final BitSet starts = new BitSet();
+	private int startsFrom;
+
 	Matcher(Pattern pattern, CharSequence text) {
 		this.pattern = pattern;
+		this.backtracker = new Backtracker(pattern.program);
 		this.text = text;
 
-		this.groupStarts = new int[pattern.groupCount + 1];
-		this.groupEnds = new int[pattern.groupCount + 1];
-
 		reset();
 	}
 
 	public Matcher reset() {
+		return reset(text);
+	}
+
+	/*
+	 * Bounds every following search by a number of backtracker steps and by a duration, past which it throws a
+	 * MatchTimeoutException; null is no timeout.
+	 * Only locating a match can run out: when the pattern has an automaton, whether there is one is answered in linear
+	 * time without the backtracker.
+	 */
+	public Matcher limit(long steps, Duration timeout) {
+		if (steps < 0) {
+			throw new IllegalArgumentException("negative step limit: " + steps);
+		}
+
+		stepLimit = steps;
+		timeoutNanos = timeout != null ? timeout.toNanos() : Backtracker.UNLIMITED;
+
+		applyLimit(backtracker);
+		if (recognizer != null) {
+			applyLimit(recognizer);
+		}
+
+		return this;
+	}
+
+	private void applyLimit(Backtracker backtracker) {
+		backtracker.stepLimit = stepLimit;
+		backtracker.timeoutNanos = timeoutNanos;
+	}
+
+	/* points the matcher to another input, so that a single instance can be used for every line */
+	public Matcher reset(CharSequence text) {
+		return reset(text, 0, text.length());
+	}
+
+	/* the region also bounds the anchors: `^` matches at from and `$` at to */
+	public Matcher reset(CharSequence text, int from, int to) {
+		if (from < 0 || from > to || to > text.length()) {
+			throw new IndexOutOfBoundsException("region [%d, %d) is out of [0, %d)".formatted(from, to, text.length()));
+		}
+
+		this.text = text;
+
 		first = -1;
 		last = 0;
 
-		from = 0;
-		to = text.length();
+		this.from = from;
+		this.to = to;
+
+		startsFrom = Integer.MAX_VALUE;
 
 		return this;
 	}
 
+	/* continues after the previous match, an empty match moves the next search one character further */
+	public boolean find() {
+		var from = last;
+		if (from == first) {
+			++from;
+		}
+
+		if (from < this.from) {
+			from = this.from;
+		}
+
+		/* past the end, where every following call stays */
+		if (from > to) {
+			first = -1;
+			last = from;
+			return false;
+		}
+
+		return search(from);
+	}
+
+	/* searches from an index inside of the current region */
 	public boolean find(int from) {
-		reset();
+		if (from < this.from || from > to) {
+			throw new IndexOutOfBoundsException("index %d is out of the region [%d, %d)".formatted(from, this.from, to));
+		}
+
+		first = -1;
+		last = 0;
+
 		return search(from);
 	}
 
+	/*
+	 * Whether the region contains a match, without finding where it is: the automaton is enough when there is one,
+	 * and otherwise the backtracker runs the program that does not save the groups.
+	 */
+	boolean recognize() {
+		first = -1;
+		hitEnd = false;
+
+		final var automaton = pattern.automaton;
+		if (!pattern.mayMatch(text, from, to) || (automaton != null && !automaton.find(text, from, from, to))) {
+			hitEnd = true;
+			return false;
+		}
+
+		if (automaton != null) {
+			return true;
+		}
+
+		if (recognizer == null) {
+			recognizer = new Backtracker(pattern.recognizer);
+			applyLimit(recognizer);
+		}
+
+		final var found = recognizer.search(text, from, from, to, pattern.prefix);
+		hitEnd = recognizer.hitEnd;
+
+		return found;
+	}
+
+	/* whether the whole region matches */
+	public boolean matches() {
+		final var found = backtracker.matches(text, from, to);
+		hitEnd = backtracker.hitEnd;
+
+		if (found) {
+			first = backtracker.slots[0];
+			last = backtracker.slots[1];
+		} else {
+			first = -1;
+		}
+
+		return found;
+	}
+
 	public String group() {
 		return group(0);
 	}
 
 	public String group(int group) {
-		final var start = groupStarts[group];
-		final var end = groupEnds[group];
+		checkMatch(group);
+
+		final var slots = backtracker.slots;
+
+		final var start = slots[group * 2];
+		final var end = slots[group * 2 + 1];
+
+		if (start == -1 || end == -1) {
+			return null;
+		}
 
 		return text.subSequence(start, end).toString();
 	}
 
+	public int start() {
+		return start(0);
+	}
+
+	/* -1 when the group did not take part in the match */
+	public int start(int group) {
+		checkMatch(group);
+
+		return backtracker.slots[group * 2];
+	}
+
+	public int end() {
+		return end(0);
+	}
+
+	public int end(int group) {
+		checkMatch(group);
+
+		return backtracker.slots[group * 2 + 1];
+	}
+
 	public int groupCount() {
 		return pattern.groupCount;
 	}
 
+	private void checkMatch(int group) {
+		if (first == -1) {
+			throw new IllegalStateException("no match available");
+		}
+
+		if (group < 0 || group > pattern.groupCount) {
+			throw new IndexOutOfBoundsException("no group " + group);
+		}
+	}
+
 	boolean search(int from) {
 		hitEnd = false;
 
-		final var found = pattern.root.match(this, from, text);
-		if (!found) {
+		/* the backtracker is only ever reached for inputs that contain a match */
+		final var automaton = pattern.automaton;
+		if (!pattern.mayMatch(text, from, to) || (automaton != null && !automaton.find(text, this.from, from, to))) {
+			first = -1;
+			hitEnd = true;
+			return false;
+		}
+
+		final boolean found;
+		if (automaton != null) {
+			found = locate(from);
+		} else {
+			found = backtracker.search(text, this.from, from, to, pattern.prefix);
+		}
+
+		hitEnd = backtracker.hitEnd;
+
+		if (found) {
+			first = backtracker.slots[0];
+			last = backtracker.slots[1];
+		} else {
 			first = -1;
 		}
 
 		return found;
 	}
 
-}
\ No newline at end of file
+	/*
+	 * Trying every start position with the backtracker can take exponential time on a line that contains a match. The
+	 * reversed automaton finds the leftmost start instead, and the anchored one the furthest end a match from there can
+	 * have: the backtracker then only fills in the groups, without leaving that range.
+	 */
+	private boolean locate(int from) {
+		final var bounds = pattern.bounds();
+
+		/* the starts do not depend on where the search begins, they are kept for the next matches of the same input */
+		if (from < startsFrom) {
+			starts.clear();
+			bounds.starts().findStarts(text, this.from, from, to, starts);
+			startsFrom = from;
+		}
+
+		final var start = starts.nextSetBit(from);
+		if (start == -1 || start > to) {
+			return false;
+		}
+
+		final var end = bounds.ends().findLongestEnd(text, this.from, start, to);
+
+		return backtracker.searchAt(text, this.from, start, end, to);
+	}
+
+}
@@ -0,0 +1,113 @@
+package grep;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Bytes of the matching lines are copied as they were read into a direct buffer, which is only written to the channel
+ * when it is full, when a file has been searched, or after every line when it is line-buffered.
+ * Not thread-safe, lines are only ever written in order from one thread.
+ */
+class Output implements Flushable {
+
+	static final int DEFAULT_CAPACITY = 256 * 1024;
+
+	private static final int MAXIMUM_DIGITS = 20;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final byte[] digits = new byte[MAXIMUM_DIGITS];
+
+	final boolean lineBuffered;
+
+	Output(WritableByteChannel channel, int capacity, boolean lineBuffered) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+		this.lineBuffered = lineBuffered;
+	}
+
+	/* the channel is not closed with the output, standard output stays open */
+	@SuppressWarnings("resource")
+	static Output standard(boolean lineBuffered) {
+		final var channel = new FileOutputStream(FileDescriptor.out).getChannel();
+
+		return new Output(channel, DEFAULT_CAPACITY, lineBuffered || isTerminal());
+	}
+
+	void write(byte[] array) throws IOException {
+		write(array, 0, array.length);
+	}
+
+	void write(byte[] array, int start, int length) throws IOException {
+		if (length > buffer.remaining()) {
+			flush();
+
+			/* too large to ever fit, it is written on its own */
+			if (length > buffer.capacity()) {
+				writeFully(ByteBuffer.wrap(array, start, length));
+				return;
+			}
+		}
+
+		buffer.put(array, start, length);
+	}
+
+	void write(byte value) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+
+		buffer.put(value);
+	}
+
+	/* formats the number without going through a string */
+	void writeNumber(long value) throws IOException {
+		if (value < 0) {
+			write((byte) '-');
+		}
+
+		var index = MAXIMUM_DIGITS;
+		do {
+			digits[--index] = (byte) ('0' + Math.abs(value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		write(digits, index, MAXIMUM_DIGITS - index);
+	}
+
+	void endLine() throws IOException {
+		write((byte) '\n');
+
+		if (lineBuffered) {
+			flush();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (buffer.position() == 0) {
+			return;
+		}
+
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+
+	static boolean isTerminal() {
+		final var console = System.console();
+
+		return console != null && console.isTerminal();
+	}
+
+}
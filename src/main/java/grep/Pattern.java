@@ -1,28 +1,123 @@
 package grep;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.OptionalInt;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import grep.Pattern.Parser.Quantifier;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 
+/*
+ * A compiled expression, which never changes once compiled and can be shared between any number of threads.
+ * The automata that are built while searching only ever publish immutable states, and building one twice from two
+ * threads is harmless. Matchers hold the state of a search and belong to a single thread, find() and matches() are
+ * the way to search from many threads without keeping a matcher per thread.
+ */
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class Pattern {
 
+	private static final PatternCache CACHE = new PatternCache(PatternCache.DEFAULT_MAXIMUM_SIZE);
+
 	final String expression;
 	final Node root;
 	final int groupCount;
+	final Program program;
+
+	/* the program without the groups, for when only whether there is a match matters */
+	final Program recognizer;
+
+	final LazyDfa automaton;
+	final Literal prefix;
+	final Literal required;
+	final Literal suffix;
+
+	/* only built once a line that is not ascii has to be searched */
+	private volatile Utf8 utf8;
+
+	/* only built once a match has to be located */
+	private volatile Bounds bounds;
 
 	public Matcher matcher(CharSequence sequence) {
 		return new Matcher(this, sequence);
 	}
 
+	/* whether the sequence contains a match, the backtracker is only needed when there is no automaton */
+	public boolean find(CharSequence sequence) {
+		final var length = sequence.length();
+
+		if (!mayMatch(sequence, 0, length)) {
+			return false;
+		}
+
+		if (automaton != null) {
+			return automaton.find(sequence, 0, 0, length);
+		}
+
+		return new Backtracker(recognizer).search(sequence, 0, 0, length, prefix);
+	}
+
+	/* whether the whole sequence is a match */
+	public boolean matches(CharSequence sequence) {
+		return new Backtracker(recognizer).matches(sequence, 0, sequence.length());
+	}
+
+	boolean mayMatch(CharSequence sequence, int from, int to) {
+		return mayMatch(required, suffix, sequence, from, to);
+	}
+
+	/* whether UTF-8 bytes, seen as Latin-1 characters, contain a match; only for patterns that have an automaton */
+	boolean findUtf8(CharSequence bytes, int from, int to) {
+		var utf8 = this.utf8;
+		if (utf8 == null) {
+			utf8 = this.utf8 = new Utf8(
+				new LazyDfa(Utf8Compiler.compile(program), prefix != null ? prefix.toUtf8() : null),
+				required != null ? required.toUtf8() : null,
+				suffix != null ? suffix.toUtf8() : null
+			);
+		}
+
+		return mayMatch(utf8.required(), utf8.suffix(), bytes, from, to) && utf8.automaton().find(bytes, from, from, to);
+	}
+
+	/* the automatons that tell where a match can start and end, only for patterns that have an automaton */
+	Bounds bounds() {
+		var bounds = this.bounds;
+		if (bounds == null) {
+			bounds = this.bounds = new Bounds(
+				new LazyDfa(Program.compileReversed((Start) root), null),
+				new LazyDfa(program, null, true)
+			);
+		}
+
+		return bounds;
+	}
+
+	private static boolean mayMatch(Literal required, Literal suffix, CharSequence sequence, int from, int to) {
+		if (suffix != null && !suffix.endsAt(sequence, from, to)) {
+			return false;
+		}
+
+		if (required != null && required.indexOf(sequence, from, to) == -1) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/* the parts of the expression that can make the backtracker take exponential time, described for a human */
+	public List<String> risks() {
+		return new RiskAnalyzer(root).risks;
+	}
+
 	public void debug() {
 		new Printer(root).print();
+		System.out.print(program);
 	}
 
 	@Override
@@ -34,6 +129,24 @@ public class Pattern {
 		return new Parser(expression).parse();
 	}
 
+	/* through a cache shared by the whole process, a compiled pattern never changes and can be matched from any thread */
+	public static Pattern compileCached(String expression) {
+		return CACHE.compile(expression);
+	}
+
+	/* the automaton and literals over UTF-8 bytes */
+	private record Utf8(
+		LazyDfa automaton,
+		Literal required,
+		Literal suffix
+	) {}
+
+	/* the reversed automaton finds where matches start, and the anchored one how far a match that starts there goes */
+	record Bounds(
+		LazyDfa starts,
+		LazyDfa ends
+	) {}
+
 	static class Parser {
 
 		private Node absoluteLast = new Last();
@@ -57,7 +170,6 @@ public class Pattern {
 					context = new Context();
 					contexts.add(context);
 
-					// TODO Handle double pipes, aka zero-length
 					continue;
 				}
 
@@ -67,7 +179,15 @@ public class Pattern {
 			final var root = new Start();
 			root.next = toBranchIfNecessary(contexts, absoluteLast, absoluteLast);
 
-			return new Pattern(expression, root, groupCount);
+			final var literals = new LiteralExtractor(root);
+			final var program = Program.compile(root, groupCount);
+
+			LazyDfa automaton = null;
+			if (!program.hasBackReferences && !program.hasAtomicGroups) {
+				automaton = new LazyDfa(program, literals.prefix);
+			}
+
+			return new Pattern(expression, root, groupCount, program, program.withoutCaptures(groupCount), automaton, literals.prefix, literals.required(), literals.suffix);
 		}
 
 		public boolean hasNext() {
@@ -85,7 +205,7 @@ public class Pattern {
 				case '+' -> throw new IllegalArgumentException("unescaped `+` is not allowed");
 				case '?' -> throw new IllegalArgumentException("unescaped `?` is not allowed");
 				case '.' -> handleCharacter(new CharPredicate.Any());
-				case '(' -> handleCaptureGroup();
+				case '(' -> handleGroup();
 				default -> handleCharacter(new CharPredicate.Character(character));
 			}
 
@@ -113,8 +233,9 @@ public class Pattern {
 			return expression.charAt(index++);
 		}
 
+		/* every predicate is folded into the same class, so that matching only ever calls a single implementation */
 		private void handleCharacter(CharPredicate predicate) {
-			final var node = new Char(predicate);
+			final var node = new Char(CharClass.of(predicate));
 			context.add(node);
 
 			final var quantifier = matchQuantifier();
@@ -132,7 +253,14 @@ public class Pattern {
 			if (character == '\\') {
 				handleCharacter(new CharPredicate.Character(character));
 			} else if (Character.isDigit(character)) {
-				context.add(new BackReference(Character.digit(character, 10)));
+				final var number = Character.digit(character, 10);
+
+				/* only the groups that were opened before can be referenced */
+				if (number > groupCount) {
+					throw new IllegalArgumentException("invalid back-reference to group %d".formatted(number));
+				}
+
+				context.add(new BackReference(number));
 			} else {
 				handleCharacter(CharacterRangeClass.fromIdentifier(character));
 			}
@@ -179,25 +307,21 @@ public class Pattern {
 			handleCharacter(predicate);
 		}
 
+		private void handleGroup() {
+			if (!match('?')) {
+				handleCaptureGroup();
+			} else if (match('>')) {
+				handleAtomicGroup();
+			} else {
+				throw new IllegalArgumentException("expected `>` after `(?`, got: " + peek());
+			}
+		}
+
 		private void handleCaptureGroup() {
 			final var number = ++groupCount;
 
 			final var previousContext = context;
-
-			final var contexts = new ArrayList<Context>();
-			contexts.add(context = new Context());
-
-			while (!match(')')) {
-				if (match('|')) {
-					context = new Context();
-					contexts.add(context);
-
-					// TODO Handle consecutive pipes, as context.root will be null
-					continue;
-				}
-
-				parseNext();
-			}
+			final var contexts = parseAlternatives();
 
 			final var tail = new GroupTail(number);
 			final var head = new GroupHead(number, tail);
@@ -218,7 +342,56 @@ public class Pattern {
 			}
 		}
 
+		/* `(?>...)`, once the group has matched, the positions it could have given back are discarded */
+		private void handleAtomicGroup() {
+			final var previousContext = context;
+			final var contexts = parseAlternatives();
+
+			final var last = new Last();
+			final var node = new Atomic(toBranchIfNecessary(contexts, last, last));
+
+			context = previousContext;
+
+			final var quantifier = matchQuantifier();
+			if (quantifier != null) {
+				node.next = new Last();
+
+				context.add(new Repeat(node, quantifier));
+			} else {
+				context.add(node);
+			}
+		}
+
+		private List<Context> parseAlternatives() {
+			final var contexts = new ArrayList<Context>();
+			contexts.add(context = new Context());
+
+			while (!match(')')) {
+				if (match('|')) {
+					context = new Context();
+					contexts.add(context);
+
+					continue;
+				}
+
+				parseNext();
+			}
+
+			return contexts;
+		}
+
+		/* a trailing `+` makes the quantifier possessive */
 		private Quantifier matchQuantifier() {
+			final var quantifier = matchGreedyQuantifier();
+
+			if (quantifier != null && match('+')) {
+				return quantifier.toPossessive();
+			}
+
+			return quantifier;
+		}
+
+		private Quantifier matchGreedyQuantifier() {
 			if (match('+')) {
 				return Quantifier.oneOrMore();
 			} else if (match('?')) {
@@ -295,6 +468,74 @@ public class Pattern {
 			}
 		}
 
+		/* walks the top-level chain to find the runs of literal characters that every match must contain */
+		static class LiteralExtractor {
+
+			Literal prefix;
+			Literal suffix;
+			Literal longest;
+
+			LiteralExtractor(Start root) {
+				final var run = new StringBuilder();
+				var atStart = true;
+
+				var node = root.next;
+				while (!(node instanceof Last)) {
+					if (node instanceof Char char_ && char_.predicate instanceof CharClass charClass && charClass.single != -1) {
+						run.append((char) charClass.single);
+					} else if (!(node instanceof GroupHead || node instanceof GroupTail)) {
+						final var literal = flush(run, atStart);
+						atStart = false;
+
+						if (literal != null && node instanceof End && isLast(node.next)) {
+							suffix = literal;
+						}
+					}
+
+					node = node.next;
+				}
+
+				flush(run, atStart);
+			}
+
+			/* the prefix is already used to skip to candidate positions, so it does not need to be searched again */
+			Literal required() {
+				if (longest == prefix) {
+					return null;
+				}
+
+				return longest;
+			}
+
+			private Literal flush(StringBuilder run, boolean atStart) {
+				if (run.isEmpty()) {
+					return null;
+				}
+
+				final var literal = new Literal(run.toString());
+				run.setLength(0);
+
+				if (atStart) {
+					prefix = literal;
+				}
+
+				if (longest == null || literal.length() > longest.length()) {
+					longest = literal;
+				}
+
+				return literal;
+			}
+
+			private static boolean isLast(Node node) {
+				while (node instanceof GroupTail) {
+					node = node.next;
+				}
+
+				return node instanceof Last;
+			}
+
+		}
+
 		static class Context {
 
 			Node root;
@@ -335,6 +576,12 @@ public class Pattern {
 			}
 
 			public void end(Node last, Node intermediateLast) {
+				/* an empty alternative matches right away */
+				if (root == null) {
+					root = last;
+					return;
+				}
+
 				for (final var node : toLinkToEnd) {
 					node.next = intermediateLast;
 				}
@@ -346,11 +593,20 @@ public class Pattern {
 
 		record Quantifier(
 			int min,
-			int max
+			int max,
+			boolean possessive
 		) {
 
 			public static final int UNBOUNDED = Repeat.UNBOUNDED;
 
+			public Quantifier(int min, int max) {
+				this(min, max, false);
+			}
+
+			public Quantifier toPossessive() {
+				return new Quantifier(min, max, true);
+			}
+
 			public static Quantifier oneOrMore() {
 				return new Quantifier(1, Repeat.UNBOUNDED);
 			}
@@ -441,6 +697,16 @@ public class Pattern {
 				System.out.println(blankIndent + "</Branch>");
 
 				printNode(branch.next);
+			} else if (node instanceof Atomic atomic) {
+				System.out.println(indent + "<Atomic>");
+
+				++depth;
+				printNode(atomic.atom);
+				--depth;
+
+				System.out.println(blankIndent + "</Atomic>");
+
+				printNode(atomic.next);
 			} else if (node instanceof BackReference backReference) {
 				System.out.println(indent + "<BackReference " + backReference.groupNumber + ">");
 
@@ -456,29 +722,11 @@ public class Pattern {
 
 		Node next;
 
-		public abstract boolean match(Matcher matcher, int index, CharSequence sequence);
-
 	}
 
 	@RequiredArgsConstructor
 	static class Start extends Node {
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			final var to = matcher.to;
-			for (; index <= to; ++index) {
-				if (next.match(matcher, index, sequence)) {
-					matcher.first = index;
-					matcher.groupStarts[0] = matcher.first;
-					matcher.groupEnds[0] = matcher.last;
-					return true;
-				}
-			}
-
-			matcher.hitEnd = true;
-			return false;
-		}
-
 		@Override
 		public String toString() {
 			return "-START-";
@@ -491,20 +739,6 @@ public class Pattern {
 
 		final CharPredicate predicate;
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			if (index >= matcher.to) {
-				matcher.hitEnd = true;
-				return false;
-			}
-
-			char value = sequence.charAt(index);
-
-			// TODO currently only support ascii
-			return predicate.test(value)
-				&& next.match(matcher, index + 1, sequence);
-		}
-
 		@Override
 		public String toString() {
 			return predicate.toString();
@@ -514,18 +748,6 @@ public class Pattern {
 
 	static class Begin extends Node {
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			final var startIndex = matcher.from;
-
-			if (index == startIndex && next.match(matcher, index, sequence)) {
-				matcher.first = index;
-				return true;
-			}
-
-			return false;
-		}
-
 		@Override
 		public String toString() {
 			return "^";
@@ -535,17 +757,6 @@ public class Pattern {
 
 	static class End extends Node {
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			final var endIndex = matcher.to;
-
-			if (index == endIndex && next.match(matcher, index, sequence)) {
-				return true;
-			}
-
-			return false;
-		}
-
 		@Override
 		public String toString() {
 			return "$";
@@ -561,45 +772,22 @@ public class Pattern {
 		final Node atom;
 		final int min;
 		final int max;
+		final boolean possessive;
 
 		public Repeat(Node atom, Quantifier quantifier) {
-			this(atom, quantifier.min, quantifier.max);
+			this(atom, quantifier.min(), quantifier.max(), quantifier.possessive());
 		}
 
 		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			int count = 0;
-			for (; count < min; ++count) {
-				if (!atom.match(matcher, index, sequence)) {
-					return false;
-				}
-
-				index = matcher.last;
-			}
-
-			final var maxCount = this.max == UNBOUNDED ? Integer.MAX_VALUE : this.max;
-
-			return matchMax(matcher, index, sequence, count, maxCount);
-		}
-
-		public boolean matchMax(Matcher matcher, int index, CharSequence sequence, int count, int maxCount) {
-			if (index < matcher.to && count++ < maxCount && atom.match(matcher, index, sequence)) {
-				final var lastIndex = matcher.last;
-
-				if (matchMax(matcher, lastIndex, sequence, count, maxCount)) {
-					return true;
-				}
-
-				if (next.match(matcher, lastIndex, sequence)) {
-					return true;
-				}
+		public String toString() {
+			if (possessive) {
+				return toGreedyString() + "+";
 			}
 
-			return next.match(matcher, index, sequence);
+			return toGreedyString();
 		}
 
-		@Override
-		public String toString() {
+		private String toGreedyString() {
 			if (min == 0 && max == 1) {
 				return "?";
 			} else if (min == 0 && max == UNBOUNDED) {
@@ -625,18 +813,6 @@ public class Pattern {
 		final int number;
 		final Node tail;
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			matcher.groupStarts[number] = index;
-
-			if (!next.match(matcher, index, sequence)) {
-				matcher.groupStarts[number] = -1;
-				return false;
-			}
-
-			return true;
-		}
-
 		@Override
 		public String toString() {
 			return "Group.head(" + number + ")";
@@ -649,18 +825,6 @@ public class Pattern {
 
 		final int number;
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			matcher.groupEnds[number] = index;
-
-			if (!next.match(matcher, index, sequence)) {
-				matcher.groupEnds[number] = -1;
-				return false;
-			}
-
-			return true;
-		}
-
 		@Override
 		public String toString() {
 			return "Group.tail(" + number + ")";
@@ -673,21 +837,6 @@ public class Pattern {
 
 		final List<Node> atoms;
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			for (final var atom : atoms) {
-				if (atom.match(matcher, index, sequence)) {
-					final var endIndex = matcher.last;
-
-					if (next.match(matcher, endIndex, sequence)) {
-						return true;
-					}
-				}
-			}
-
-			return false;
-		}
-
 		@Override
 		public String toString() {
 			return "|";
@@ -696,36 +845,21 @@ public class Pattern {
 	}
 
 	@RequiredArgsConstructor
-	static class BackReference extends Node {
+	static class Atomic extends Node {
 
-		final int groupNumber;
+		final Node atom;
 
 		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			final var start = matcher.groupStarts[groupNumber];
-			final var end = matcher.groupEnds[groupNumber];
-
-			final var length = end - start;
-
-			/* group not matched */
-			if (length < 0) {
-				return false;
-			}
+		public String toString() {
+			return "(?>)";
+		}
 
-			/* not enough characters left */
-			if (index + length > matcher.to) {
-				matcher.hitEnd = true;
-				return false;
-			}
+	}
 
-			for (var jndex = 0; jndex < length; ++jndex) {
-				if (sequence.charAt(start + jndex) != sequence.charAt(index + jndex)) {
-					return false;
-				}
-			}
+	@RequiredArgsConstructor
+	static class BackReference extends Node {
 
-			return next.match(matcher, index + length, sequence);
-		}
+		final int groupNumber;
 
 		@Override
 		public String toString() {
@@ -736,12 +870,6 @@ public class Pattern {
 
 	static class Last extends Node {
 
-		@Override
-		public boolean match(Matcher matcher, int index, CharSequence sequence) {
-			matcher.last = index;
-			return true;
-		}
-
 		@Override
 		public String toString() {
 			return "-LAST-";
@@ -754,6 +882,29 @@ public class Pattern {
 
 		boolean test(char character);
 
+		/* whether no character is accepted by both */
+		static boolean disjoint(CharPredicate first, CharPredicate second) {
+			if (first instanceof CharClass firstClass && second instanceof CharClass secondClass) {
+				return firstClass.isDisjoint(secondClass);
+			}
+
+			if (first instanceof Character character) {
+				return !second.test(character.value);
+			}
+
+			if (second instanceof Character character) {
+				return !first.test(character.value);
+			}
+
+			for (var character = 0; character <= java.lang.Character.MAX_VALUE; ++character) {
+				if (first.test((char) character) && second.test((char) character)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
 		@RequiredArgsConstructor
 		static class Character implements CharPredicate {
 
@@ -850,28 +1001,24 @@ public class Pattern {
 	@RequiredArgsConstructor
 	enum CharacterRangeClass implements CharPredicate {
 
-		DIGITS('d') {
-
-			@Override
-			public boolean test(char character) {
-				return character >= '0' && character <= '9';
-			}
+		DIGITS('d', "09"),
+		WORDS('w', "09AZ__az");
 
-		},
+		private final char identifier;
 
-		WORDS('w') {
+		/* pairs of inclusive bounds */
+		private final String ranges;
 
-			@Override
-			public boolean test(char character) {
-				return (character >= '0' && character <= '9')
-					|| (character >= 'a' && character <= 'z')
-					|| (character >= 'A' && character <= 'Z')
-					|| (character == '_');
+		@Override
+		public boolean test(char character) {
+			for (var index = 0; index < ranges.length(); index += 2) {
+				if (character >= ranges.charAt(index) && character <= ranges.charAt(index + 1)) {
+					return true;
+				}
 			}
 
-		};
-
-		private final char identifier;
+			return false;
+		}
 
 		@Override
 		public String toString() {
@@ -894,18 +1041,45 @@ public class Pattern {
 
 		private final boolean[] characters;
 
+		/* characters past the table are rare, they are only allocated for when needed */
+		private BitSet others;
+
 		public AsciiArrayClass() {
 			this.characters = new boolean[256];
 		}
 
 		public boolean add(char character) {
-			characters[character] = true;
+			if (character < characters.length) {
+				characters[character] = true;
+			} else {
+				if (others == null) {
+					others = new BitSet();
+				}
+
+				others.set(character);
+			}
+
 			return true;
 		}
 
 		@Override
 		public boolean test(char character) {
-			return characters[character];
+			if (character < characters.length) {
+				return characters[character];
+			}
+
+			return others != null && others.get(character);
+		}
+
+		int[] toRanges() {
+			var ranges = CharClass.enumerate(this, 0, characters.length - 1);
+
+			if (others != null) {
+				final var wide = others.stream().flatMap((character) -> IntStream.of(character, character)).toArray();
+				ranges = CharClass.union(ranges, wide);
+			}
+
+			return ranges;
 		}
 
 		@Override
@@ -922,9 +1096,247 @@ public class Pattern {
 				}
 			}
 
+			if (others != null) {
+				others.stream().forEach((index) -> {
+					if (builder.length() > 0) {
+						builder.append(',');
+					}
+
+					builder.append((char) index);
+				});
+			}
+
 			return builder.toString();
 		}
 
 	}
 
+	/*
+	 * Any predicate tree folded into a single shape, so that every character test is the same call: a 128-bit mask for
+	 * ascii, and sorted ranges for the other characters.
+	 */
+	static final class CharClass implements CharPredicate {
+
+		private static final int ASCII = 0x80;
+
+		private final String description;
+		private final long low;
+		private final long high;
+		private final char[] starts;
+		private final char[] ends;
+
+		/* the only character that is accepted, or -1 */
+		final int single;
+
+		private CharClass(String description, int[] ranges) {
+			this.description = description;
+
+			var low = 0L;
+			var high = 0L;
+			var wideCount = 0;
+			var size = 0;
+
+			for (var index = 0; index < ranges.length; index += 2) {
+				final var start = ranges[index];
+				final var end = ranges[index + 1];
+				size += end - start + 1;
+
+				for (var character = start; character <= end && character < ASCII; ++character) {
+					if (character < 64) {
+						low |= 1L << character;
+					} else {
+						high |= 1L << character;
+					}
+				}
+
+				if (end >= ASCII) {
+					++wideCount;
+				}
+			}
+
+			this.low = low;
+			this.high = high;
+			this.starts = new char[wideCount];
+			this.ends = new char[wideCount];
+
+			var wideIndex = 0;
+			for (var index = 0; index < ranges.length; index += 2) {
+				if (ranges[index + 1] >= ASCII) {
+					starts[wideIndex] = (char) Math.max(ASCII, ranges[index]);
+					ends[wideIndex] = (char) ranges[index + 1];
+					++wideIndex;
+				}
+			}
+
+			this.single = size == 1 ? ranges[0] : -1;
+		}
+
+		static CharClass of(CharPredicate predicate) {
+			if (predicate instanceof CharClass charClass) {
+				return charClass;
+			}
+
+			return new CharClass(predicate.toString(), rangesOf(predicate));
+		}
+
+		@Override
+		public boolean test(char character) {
+			if (character < ASCII) {
+				return (((character < 64 ? low : high) >>> character) & 1) != 0;
+			}
+
+			/* last range starting at or before the character */
+			var from = 0;
+			var to = starts.length - 1;
+			while (from <= to) {
+				final var middle = (from + to) >>> 1;
+
+				if (starts[middle] <= character) {
+					from = middle + 1;
+				} else {
+					to = middle - 1;
+				}
+			}
+
+			return to >= 0 && character <= ends[to];
+		}
+
+		boolean isDisjoint(CharClass other) {
+			if ((low & other.low) != 0 || (high & other.high) != 0) {
+				return false;
+			}
+
+			var index = 0;
+			var otherIndex = 0;
+			while (index < starts.length && otherIndex < other.starts.length) {
+				if (ends[index] < other.starts[otherIndex]) {
+					++index;
+				} else if (other.ends[otherIndex] < starts[index]) {
+					++otherIndex;
+				} else {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/* pairs of inclusive bounds */
+		int[] toRanges() {
+			final var wide = new int[starts.length * 2];
+			for (var index = 0; index < starts.length; ++index) {
+				wide[index * 2] = starts[index];
+				wide[index * 2 + 1] = ends[index];
+			}
+
+			return union(enumerate(this, 0, ASCII - 1), wide);
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+
+		private static int[] rangesOf(CharPredicate predicate) {
+			return switch (predicate) {
+				case CharClass charClass -> charClass.toRanges();
+				case CharPredicate.Character character -> new int[] { character.value, character.value };
+				case CharPredicate.Any any -> new int[] { 0, java.lang.Character.MAX_VALUE };
+				case CharPredicate.Not not -> complement(rangesOf(not.predicate));
+				case CharPredicate.Or or -> {
+					var ranges = new int[0];
+
+					for (final var child : or.children) {
+						ranges = union(ranges, rangesOf(child));
+					}
+
+					yield ranges;
+				}
+				case CharacterRangeClass rangeClass -> rangeClass.ranges.chars().toArray();
+				case AsciiArrayClass array -> array.toRanges();
+				default -> enumerate(predicate, 0, java.lang.Character.MAX_VALUE);
+			};
+		}
+
+		/* the ranges of the characters accepted between from and to */
+		static int[] enumerate(CharPredicate predicate, int from, int to) {
+			var ranges = new int[8];
+			var size = 0;
+
+			for (var character = from; character <= to; ++character) {
+				if (!predicate.test((char) character)) {
+					continue;
+				}
+
+				if (size != 0 && ranges[size - 1] == character - 1) {
+					ranges[size - 1] = character;
+				} else {
+					if (size == ranges.length) {
+						ranges = Arrays.copyOf(ranges, size * 2);
+					}
+
+					ranges[size++] = character;
+					ranges[size++] = character;
+				}
+			}
+
+			return Arrays.copyOf(ranges, size);
+		}
+
+		/* both are sorted, and so is the result, where touching ranges are merged */
+		static int[] union(int[] first, int[] second) {
+			final var merged = new int[first.length + second.length];
+			var size = 0;
+
+			var firstIndex = 0;
+			var secondIndex = 0;
+			while (firstIndex < first.length || secondIndex < second.length) {
+				int start;
+				int end;
+
+				if (secondIndex >= second.length || (firstIndex < first.length && first[firstIndex] <= second[secondIndex])) {
+					start = first[firstIndex];
+					end = first[firstIndex + 1];
+					firstIndex += 2;
+				} else {
+					start = second[secondIndex];
+					end = second[secondIndex + 1];
+					secondIndex += 2;
+				}
+
+				if (size != 0 && start <= merged[size - 1] + 1) {
+					merged[size - 1] = Math.max(merged[size - 1], end);
+				} else {
+					merged[size++] = start;
+					merged[size++] = end;
+				}
+			}
+
+			return Arrays.copyOf(merged, size);
+		}
+
+		static int[] complement(int[] ranges) {
+			final var complement = new int[ranges.length + 2];
+			var size = 0;
+
+			var next = 0;
+			for (var index = 0; index < ranges.length; index += 2) {
+				if (ranges[index] > next) {
+					complement[size++] = next;
+					complement[size++] = ranges[index] - 1;
+				}
+
+				next = ranges[index + 1] + 1;
+			}
+
+			if (next <= java.lang.Character.MAX_VALUE) {
+				complement[size++] = next;
+				complement[size++] = java.lang.Character.MAX_VALUE;
+			}
+
+			return Arrays.copyOf(complement, size);
+		}
+
+	}
+
 }
\ No newline at end of file
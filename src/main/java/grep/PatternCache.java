@@ -0,0 +1,159 @@
+package grep;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/*
+ * Compiled patterns by expression, for callers that compile the same expressions over and over.
+ * The least recently used pattern is evicted once the cache is full, and patterns that were not used for longer than
+ * the expiry are dropped when the cache is next touched.
+ * Thread-safe: a lock is only held to look up and store, expressions are compiled outside of it, so two threads missing
+ * the same expression may both compile it but only the first one is kept.
+ */
+public class PatternCache {
+
+	static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+	private final int maximumSize;
+	private final long expireAfterAccessNanos;
+	private final LongSupplier ticker;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	public PatternCache(int maximumSize) {
+		this(maximumSize, null);
+	}
+
+	/* a null expiry keeps the patterns until they are evicted */
+	public PatternCache(int maximumSize, Duration expireAfterAccess) {
+		this(maximumSize, expireAfterAccess, System::nanoTime);
+	}
+
+	PatternCache(int maximumSize, Duration expireAfterAccess, LongSupplier ticker) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("maximum size must be positive: " + maximumSize);
+		}
+
+		this.maximumSize = maximumSize;
+		this.expireAfterAccessNanos = expireAfterAccess != null ? expireAfterAccess.toNanos() : Long.MAX_VALUE;
+		this.ticker = ticker;
+	}
+
+	/* throws like Pattern.compile() for an invalid expression, which is not cached */
+	public Pattern compile(String expression) {
+		final var now = ticker.getAsLong();
+
+		synchronized (this) {
+			expire(now);
+
+			final var entry = entries.get(expression);
+			if (entry != null) {
+				++hitCount;
+
+				entry.accessedAt = now;
+				return entry.pattern;
+			}
+
+			++missCount;
+		}
+
+		final var pattern = Pattern.compile(expression);
+
+		synchronized (this) {
+			final var existing = entries.putIfAbsent(expression, new Entry(pattern, now));
+			if (existing != null) {
+				return existing.pattern;
+			}
+
+			evict();
+		}
+
+		return pattern;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	/* from the least to the most recently used */
+	synchronized List<String> expressions() {
+		return List.copyOf(entries.keySet());
+	}
+
+	public synchronized CacheStatistics statistics() {
+		return new CacheStatistics(hitCount, missCount, evictionCount);
+	}
+
+	/* the least recently accessed patterns come first, so only the head of the map has to be looked at */
+	private void expire(long now) {
+		if (expireAfterAccessNanos == Long.MAX_VALUE) {
+			return;
+		}
+
+		final var iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().accessedAt < expireAfterAccessNanos) {
+				break;
+			}
+
+			iterator.remove();
+			++evictionCount;
+		}
+	}
+
+	private void evict() {
+		final var iterator = entries.entrySet().iterator();
+
+		while (entries.size() > maximumSize) {
+			iterator.next();
+			iterator.remove();
+
+			++evictionCount;
+		}
+	}
+
+	private static class Entry {
+
+		final Pattern pattern;
+		long accessedAt;
+
+		Entry(Pattern pattern, long accessedAt) {
+			this.pattern = pattern;
+			this.accessedAt = accessedAt;
+		}
+
+	}
+
+	public record CacheStatistics(
+		long hitCount,
+		long missCount,
+		long evictionCount
+	) {
+
+		public double hitRate() {
+			final var requestCount = hitCount + missCount;
+			if (requestCount == 0) {
+				return 1;
+			}
+
+			return (double) hitCount / requestCount;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=%d misses=%d evictions=%d".formatted(hitCount, missCount, evictionCount);
+		}
+
+	}
+
+}
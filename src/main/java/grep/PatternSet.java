@@ -0,0 +1,172 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/*
+ * Several patterns searched together, a line matches when any of them does.
+ * Plain strings are found by a single Aho-Corasick automaton, and every expression that an automaton can run is merged
+ * into a single lazy DFA. Only the expressions that need the backtracker are searched one after the other.
+ * Like a pattern, a set can be shared between threads, each of them searching with its own matcher.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class PatternSet {
+
+	private static final String METACHARACTERS = "\\[]()|^$.*+?{}";
+
+	final List<String> expressions;
+
+	/* when there is a single expression, it is used as is */
+	final Pattern single;
+
+	final AhoCorasick literals;
+	final int[] literalIndexes;
+
+	final LazyDfa automaton;
+
+	final Pattern[] fallbacks;
+	final int[] fallbackIndexes;
+
+	/* the literals and the automaton over UTF-8 bytes, only built once a line that is not ascii has to be searched */
+	private volatile AhoCorasick utf8Literals;
+	private volatile LazyDfa utf8Automaton;
+
+	/* every expression compiled on its own, only built once the matches themselves have to be found */
+	private volatile Pattern[] patterns;
+
+	public SetMatcher matcher() {
+		return new SetMatcher(this);
+	}
+
+	public int size() {
+		return expressions.size();
+	}
+
+	public String expression(int index) {
+		return expressions.get(index);
+	}
+
+	Pattern[] patterns() {
+		var patterns = this.patterns;
+		if (patterns == null) {
+			if (single != null) {
+				patterns = new Pattern[] { single };
+			} else {
+				patterns = expressions.stream().map(Pattern::compile).toArray(Pattern[]::new);
+			}
+
+			this.patterns = patterns;
+		}
+
+		return patterns;
+	}
+
+	AhoCorasick utf8Literals() {
+		var utf8Literals = this.utf8Literals;
+		if (utf8Literals == null) {
+			final var keywords = new ArrayList<String>();
+			for (final var index : literalIndexes) {
+				final var bytes = expressions.get(index).getBytes(StandardCharsets.UTF_8);
+				keywords.add(new String(bytes, StandardCharsets.ISO_8859_1));
+			}
+
+			utf8Literals = this.utf8Literals = new AhoCorasick(keywords);
+		}
+
+		return utf8Literals;
+	}
+
+	LazyDfa utf8Automaton() {
+		var utf8Automaton = this.utf8Automaton;
+		if (utf8Automaton == null) {
+			utf8Automaton = this.utf8Automaton = new LazyDfa(Utf8Compiler.compile(automaton.program), null);
+		}
+
+		return utf8Automaton;
+	}
+
+	@Override
+	public String toString() {
+		return "PatternSet{%s}".formatted(String.join(", ", expressions));
+	}
+
+	public static PatternSet compile(List<String> expressions) {
+		if (expressions.isEmpty()) {
+			throw new IllegalArgumentException("at least one pattern is required");
+		}
+
+		expressions = List.copyOf(expressions);
+
+		if (expressions.size() == 1) {
+			return new PatternSet(expressions, Pattern.compile(expressions.getFirst()), null, null, null, null, null);
+		}
+
+		final var keywords = new ArrayList<String>();
+		final var keywordIndexes = new ArrayList<Integer>();
+
+		final var programs = new ArrayList<Program>();
+		final var programIndexes = new ArrayList<Integer>();
+
+		final var fallbacks = new ArrayList<Pattern>();
+		final var fallbackIndexes = new ArrayList<Integer>();
+
+		for (var index = 0; index < expressions.size(); ++index) {
+			final var expression = expressions.get(index);
+
+			if (isLiteral(expression)) {
+				keywords.add(expression);
+				keywordIndexes.add(index);
+				continue;
+			}
+
+			final var pattern = Pattern.compile(expression);
+			if (pattern.automaton != null) {
+				programs.add(pattern.program);
+				programIndexes.add(index);
+			} else {
+				fallbacks.add(pattern);
+				fallbackIndexes.add(index);
+			}
+		}
+
+		AhoCorasick literals = null;
+		if (!keywords.isEmpty()) {
+			literals = new AhoCorasick(keywords);
+		}
+
+		LazyDfa automaton = null;
+		if (!programs.isEmpty()) {
+			final var ids = programIndexes.stream().mapToInt(Integer::intValue).toArray();
+			automaton = new LazyDfa(Program.union(programs, ids), null);
+		}
+
+		return new PatternSet(
+			expressions,
+			null,
+			literals,
+			keywordIndexes.stream().mapToInt(Integer::intValue).toArray(),
+			automaton,
+			fallbacks.toArray(Pattern[]::new),
+			fallbackIndexes.stream().mapToInt(Integer::intValue).toArray()
+		);
+	}
+
+	static boolean isLiteral(String expression) {
+		if (expression.isEmpty()) {
+			return false;
+		}
+
+		for (var index = 0; index < expression.length(); ++index) {
+			if (METACHARACTERS.indexOf(expression.charAt(index)) != -1) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+}
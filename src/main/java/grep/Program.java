@@ -0,0 +1,560 @@
+package grep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import grep.Pattern.Atomic;
+import grep.Pattern.BackReference;
+import grep.Pattern.Begin;
+import grep.Pattern.Branch;
+import grep.Pattern.Char;
+import grep.Pattern.CharPredicate;
+import grep.Pattern.End;
+import grep.Pattern.GroupHead;
+import grep.Pattern.GroupTail;
+import grep.Pattern.Last;
+import grep.Pattern.Node;
+import grep.Pattern.Repeat;
+import grep.Pattern.Start;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+class Program {
+
+	static final int CHAR = 0;
+	static final int SPLIT = 1;
+	static final int JUMP = 2;
+	static final int BEGIN = 3;
+	static final int END = 4;
+	static final int SAVE = 5;
+	static final int BACK_REFERENCE = 6;
+	static final int MATCH = 7;
+	static final int PROGRESS = 8;
+	static final int RUN = 9;
+	static final int MARK = 10;
+	static final int CUT = 11;
+
+	final int[] opcodes;
+	final int[] operands;
+	final int[] alternates;
+	final CharPredicate[] predicates;
+	final int slotCount;
+	final boolean hasBackReferences;
+	final boolean hasAtomicGroups;
+
+	/* only computed once a backtracker runs the program, shared by all of them */
+	private volatile Backtracker.Analysis analysis;
+
+	Backtracker.Analysis analysis() {
+		var analysis = this.analysis;
+		if (analysis == null) {
+			analysis = this.analysis = Backtracker.analyze(this);
+		}
+
+		return analysis;
+	}
+
+	int size() {
+		return opcodes.length;
+	}
+
+	@Override
+	public String toString() {
+		final var builder = new StringBuilder();
+
+		for (var pc = 0; pc < opcodes.length; ++pc) {
+			builder.append("%3d: ".formatted(pc));
+
+			switch (opcodes[pc]) {
+				case CHAR -> builder.append("char ").append(predicates[operands[pc]]);
+				case SPLIT -> builder.append("split ").append(operands[pc]).append(", ").append(alternates[pc]);
+				case JUMP -> builder.append("jump ").append(operands[pc]);
+				case BEGIN -> builder.append("begin");
+				case END -> builder.append("end");
+				case SAVE -> builder.append("save ").append(operands[pc]);
+				case BACK_REFERENCE -> builder.append("back-reference ").append(operands[pc]);
+				case MATCH -> builder.append("match ").append(operands[pc]);
+				case PROGRESS -> builder.append("progress ").append(operands[pc]).append(", ").append(alternates[pc]);
+				case RUN -> builder.append("run ").append(predicates[operands[pc]]).append(", ").append(alternates[pc]);
+				case MARK -> builder.append("mark ").append(operands[pc]);
+				case CUT -> builder.append("cut ").append(operands[pc]);
+			}
+
+			builder.append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	static Program compile(Start root, int groupCount) {
+		return new Compiler(groupCount, false).compile(root);
+	}
+
+	/*
+	 * The program of the expression read backwards, for an automaton that finds where matches start: the anchors are
+	 * swapped and the groups are left out. Only for expressions that an automaton can run.
+	 */
+	static Program compileReversed(Start root) {
+		return new Compiler(0, true).compile(root);
+	}
+
+	/*
+	 * The same program without saving the groups, for when only whether there is a match matters: backtracking then has
+	 * no saves to undo. The groups that a back-reference refers to are still saved, and so are the registers.
+	 */
+	Program withoutCaptures(int groupCount) {
+		final var referenced = new boolean[groupCount + 1];
+		for (var pc = 0; pc < size(); ++pc) {
+			if (opcodes[pc] == BACK_REFERENCE) {
+				referenced[operands[pc]] = true;
+			}
+		}
+
+		/* a removed instruction is replaced by the one that follows it */
+		final var starts = new int[size()];
+		var size = 0;
+		for (var pc = 0; pc < size(); ++pc) {
+			starts[pc] = size;
+
+			final var isGroupSave = opcodes[pc] == SAVE && operands[pc] < (groupCount + 1) * 2;
+			if (!isGroupSave || referenced[operands[pc] / 2]) {
+				++size;
+			}
+		}
+
+		final var opcodes = new int[size];
+		final var operands = new int[size];
+		final var alternates = new int[size];
+
+		for (var pc = 0; pc < size(); ++pc) {
+			final var target = starts[pc];
+			if (pc + 1 < size() && starts[pc + 1] == target) {
+				continue;
+			}
+
+			final var opcode = opcodes[target] = this.opcodes[pc];
+			var operand = this.operands[pc];
+			var alternate = this.alternates[pc];
+
+			switch (opcode) {
+				case SPLIT -> {
+					operand = starts[operand];
+					alternate = starts[alternate];
+				}
+				case JUMP -> operand = starts[operand];
+				case PROGRESS -> alternate = starts[alternate];
+			}
+
+			operands[target] = operand;
+			alternates[target] = alternate;
+		}
+
+		return new Program(opcodes, operands, alternates, predicates, slotCount, hasBackReferences, hasAtomicGroups);
+	}
+
+	/*
+	 * Alternation of several programs, where the match instruction of each one is tagged with its id.
+	 * Slots overlap between the programs, so the result is only meant to be run by an automaton.
+	 */
+	static Program union(List<Program> programs, int[] ids) {
+		final var count = programs.size();
+
+		var size = count;
+		var predicateCount = 0;
+		for (final var program : programs) {
+			if (program.hasBackReferences || program.hasAtomicGroups) {
+				throw new IllegalArgumentException("only programs that an automaton can run can be merged");
+			}
+
+			size += program.size();
+			predicateCount += program.predicates.length;
+		}
+
+		final var opcodes = new int[size];
+		final var operands = new int[size];
+		final var alternates = new int[size];
+		final var predicates = new CharPredicate[predicateCount];
+		var slotCount = 0;
+
+		var offset = count;
+		var predicateOffset = 0;
+		for (var index = 0; index < count; ++index) {
+			final var program = programs.get(index);
+
+			if (index != count - 1) {
+				opcodes[index] = SPLIT;
+				operands[index] = offset;
+				alternates[index] = index + 1;
+			} else {
+				opcodes[index] = JUMP;
+				operands[index] = offset;
+			}
+
+			for (var pc = 0; pc < program.size(); ++pc) {
+				final var opcode = opcodes[offset + pc] = program.opcodes[pc];
+				var operand = program.operands[pc];
+				var alternate = program.alternates[pc];
+
+				switch (opcode) {
+					case CHAR, RUN -> operand += predicateOffset;
+					case SPLIT -> {
+						operand += offset;
+						alternate += offset;
+					}
+					case JUMP -> operand += offset;
+					case PROGRESS -> alternate += offset;
+					case MATCH -> operand = ids[index];
+				}
+
+				operands[offset + pc] = operand;
+				alternates[offset + pc] = alternate;
+			}
+
+			System.arraycopy(program.predicates, 0, predicates, predicateOffset, program.predicates.length);
+			slotCount = Math.max(slotCount, program.slotCount);
+
+			offset += program.size();
+			predicateOffset += program.predicates.length;
+		}
+
+		return new Program(opcodes, operands, alternates, predicates, slotCount, false, false);
+	}
+
+	static class Compiler {
+
+		private final int groupCount;
+		private final boolean reversed;
+		private final List<CharPredicate> predicates = new ArrayList<>();
+
+		private int[] opcodes = new int[16];
+		private int[] operands = new int[16];
+		private int[] alternates = new int[16];
+		private int size = 0;
+
+		private boolean hasBackReferences = false;
+		private boolean hasAtomicGroups = false;
+		private int registerCount = 0;
+
+		Compiler(int groupCount, boolean reversed) {
+			this.groupCount = groupCount;
+			this.reversed = reversed;
+		}
+
+		Program compile(Start root) {
+			emit(SAVE, 0);
+			compileChain(root.next);
+			emit(SAVE, 1);
+			emit(MATCH, 0);
+
+			possessify();
+
+			return new Program(
+				Arrays.copyOf(opcodes, size),
+				Arrays.copyOf(operands, size),
+				Arrays.copyOf(alternates, size),
+				predicates.toArray(CharPredicate[]::new),
+				(groupCount + 1) * 2 + registerCount,
+				hasBackReferences,
+				hasAtomicGroups
+			);
+		}
+
+		private void compileChain(Node node) {
+			if (reversed) {
+				final var nodes = new ArrayList<Node>();
+				for (; !(node instanceof Last); node = node.next) {
+					nodes.add(node);
+				}
+
+				for (var index = nodes.size() - 1; index >= 0; --index) {
+					compileReversedNode(nodes.get(index));
+				}
+
+				return;
+			}
+
+			while (!(node instanceof Last)) {
+				switch (node) {
+					case Char char_ -> {
+						predicates.add(char_.predicate);
+						emit(CHAR, predicates.size() - 1);
+					}
+
+					case Begin begin -> emit(BEGIN, 0);
+					case End end -> emit(END, 0);
+					case GroupHead groupHead -> emit(SAVE, groupHead.number * 2);
+					case GroupTail groupTail -> emit(SAVE, groupTail.number * 2 + 1);
+
+					case BackReference backReference -> {
+						hasBackReferences = true;
+						emit(BACK_REFERENCE, backReference.groupNumber);
+					}
+
+					case Repeat repeat -> {
+						if (repeat.possessive) {
+							compilePossessiveRepeat(repeat);
+						} else {
+							compileRepeat(repeat);
+						}
+					}
+
+					case Atomic atomic -> {
+						final var register = mark();
+						compileChain(atomic.atom);
+						emit(CUT, register);
+					}
+
+					case Branch branch -> compileBranch(branch);
+					default -> throw new IllegalStateException("unexpected node: " + node);
+				}
+
+				node = node.next;
+			}
+		}
+
+		/* the repetitions and the alternatives reverse their own chains */
+		private void compileReversedNode(Node node) {
+			switch (node) {
+				case Char char_ -> {
+					predicates.add(char_.predicate);
+					emit(CHAR, predicates.size() - 1);
+				}
+
+				case Begin begin -> emit(END, 0);
+				case End end -> emit(BEGIN, 0);
+				case GroupHead groupHead -> {}
+				case GroupTail groupTail -> {}
+				case Repeat repeat when !repeat.possessive -> compileRepeat(repeat);
+				case Branch branch -> compileBranch(branch);
+				default -> throw new IllegalArgumentException("cannot be reversed: " + node);
+			}
+		}
+
+		/* a single character is repeated by one instruction, anything else is wrapped as an atomic group */
+		private void compilePossessiveRepeat(Repeat repeat) {
+			if (!(repeat.atom instanceof Char char_ && char_.next instanceof Last)) {
+				final var register = mark();
+				compileRepeat(repeat);
+				emit(CUT, register);
+
+				return;
+			}
+
+			hasAtomicGroups = true;
+
+			for (var count = 0; count < repeat.min; ++count) {
+				compileChain(repeat.atom);
+			}
+
+			if (repeat.max != repeat.min) {
+				predicates.add(char_.predicate);
+
+				final var run = emit(RUN, predicates.size() - 1);
+				alternates[run] = repeat.max == Repeat.UNBOUNDED ? Repeat.UNBOUNDED : repeat.max - repeat.min;
+			}
+		}
+
+		private int mark() {
+			hasAtomicGroups = true;
+
+			final var register = (groupCount + 1) * 2 + registerCount++;
+			emit(MARK, register);
+
+			return register;
+		}
+
+		private void compileRepeat(Repeat repeat) {
+			for (var count = 0; count < repeat.min; ++count) {
+				compileChain(repeat.atom);
+			}
+
+			if (repeat.max == Repeat.UNBOUNDED) {
+				final var split = emit(SPLIT, 0);
+				operands[split] = size;
+
+				/* an iteration that matched nothing would loop forever, it ends the repetition instead */
+				var progress = -1;
+				if (isNullable(repeat.atom)) {
+					final var register = (groupCount + 1) * 2 + registerCount++;
+
+					emit(SAVE, register);
+					compileChain(repeat.atom);
+					progress = emit(PROGRESS, register);
+				} else {
+					compileChain(repeat.atom);
+				}
+
+				emit(JUMP, split);
+
+				alternates[split] = size;
+				if (progress != -1) {
+					alternates[progress] = size;
+				}
+
+				return;
+			}
+
+			final var splits = new int[repeat.max - repeat.min];
+			for (var index = 0; index < splits.length; ++index) {
+				final var split = splits[index] = emit(SPLIT, 0);
+				operands[split] = size;
+
+				compileChain(repeat.atom);
+			}
+
+			for (final var split : splits) {
+				alternates[split] = size;
+			}
+		}
+
+		private void compileBranch(Branch branch) {
+			final var atoms = branch.atoms;
+			final var jumps = new int[atoms.size() - 1];
+
+			for (var index = 0; index < atoms.size(); ++index) {
+				final var isLast = index == atoms.size() - 1;
+
+				var split = -1;
+				if (!isLast) {
+					split = emit(SPLIT, 0);
+					operands[split] = size;
+				}
+
+				compileChain(atoms.get(index));
+
+				if (!isLast) {
+					jumps[index] = emit(JUMP, 0);
+					alternates[split] = size;
+				}
+			}
+
+			for (final var jump : jumps) {
+				operands[jump] = size;
+			}
+		}
+
+		static boolean isNullable(Node node) {
+			while (!(node instanceof Last)) {
+				final var nullable = switch (node) {
+					case Char char_ -> false;
+					case Repeat repeat -> repeat.min == 0 || isNullable(repeat.atom);
+					case Branch branch -> branch.atoms.stream().anyMatch(Compiler::isNullable);
+					case Atomic atomic -> isNullable(atomic.atom);
+					default -> true;
+				};
+
+				if (!nullable) {
+					return false;
+				}
+
+				node = node.next;
+			}
+
+			return true;
+		}
+
+		/*
+		 * A greedy loop over a single character never needs to give one back when the character cannot also start
+		 * whatever follows the loop: if stopping earlier let the rest match, the character at that position would have to
+		 * be consumed by both.
+		 * Such loops are rewritten in place into a run, which keeps the same language (the automaton can still be used)
+		 * but leaves no alternative on the backtracking stack.
+		 */
+		private void possessify() {
+			for (var pc = 0; pc + 2 < size; ++pc) {
+				final var isLoop = opcodes[pc] == SPLIT
+					&& operands[pc] == pc + 1
+					&& alternates[pc] == pc + 3
+					&& opcodes[pc + 1] == CHAR
+					&& opcodes[pc + 2] == JUMP
+					&& operands[pc + 2] == pc;
+
+				if (!isLoop || !isDisjointFromContinuation(predicates.get(operands[pc + 1]), pc + 3)) {
+					continue;
+				}
+
+				opcodes[pc] = RUN;
+				operands[pc] = operands[pc + 1];
+				alternates[pc] = Repeat.UNBOUNDED;
+
+				opcodes[pc + 1] = JUMP;
+				operands[pc + 1] = pc + 3;
+			}
+		}
+
+		/* whether every path from start either consumes a character outside of the predicate first, or matches right away */
+		private boolean isDisjointFromContinuation(CharPredicate predicate, int start) {
+			final var visited = new boolean[size];
+			final var stack = new ArrayDeque<Integer>();
+			stack.push(start);
+
+			while (!stack.isEmpty()) {
+				final int pc = stack.pop();
+				if (visited[pc]) {
+					continue;
+				}
+
+				visited[pc] = true;
+
+				switch (opcodes[pc]) {
+					case CHAR -> {
+						if (!CharPredicate.disjoint(predicate, predicates.get(operands[pc]))) {
+							return false;
+						}
+					}
+
+					case RUN -> {
+						if (!CharPredicate.disjoint(predicate, predicates.get(operands[pc]))) {
+							return false;
+						}
+
+						stack.push(pc + 1);
+					}
+
+					case SPLIT -> {
+						stack.push(operands[pc]);
+						stack.push(alternates[pc]);
+					}
+
+					case PROGRESS -> {
+						stack.push(pc + 1);
+						stack.push(alternates[pc]);
+					}
+
+					case JUMP -> stack.push(operands[pc]);
+					case END, SAVE, MARK, CUT -> stack.push(pc + 1);
+
+					/* the start of the input could be reachable by giving back, so could a repeated group */
+					case BEGIN, BACK_REFERENCE -> {
+						return false;
+					}
+
+					case MATCH -> {}
+				}
+			}
+
+			return true;
+		}
+
+		private int emit(int opcode, int operand) {
+			if (size == opcodes.length) {
+				final var capacity = size * 2;
+
+				opcodes = Arrays.copyOf(opcodes, capacity);
+				operands = Arrays.copyOf(operands, capacity);
+				alternates = Arrays.copyOf(alternates, capacity);
+			}
+
+			opcodes[size] = opcode;
+			operands[size] = operand;
+			alternates[size] = 0;
+
+			return size++;
+		}
+
+	}
+
+}
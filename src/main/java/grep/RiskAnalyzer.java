@@ -0,0 +1,222 @@
+package grep;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import grep.Pattern.Atomic;
+import grep.Pattern.BackReference;
+import grep.Pattern.Begin;
+import grep.Pattern.Branch;
+import grep.Pattern.Char;
+import grep.Pattern.CharPredicate;
+import grep.Pattern.End;
+import grep.Pattern.GroupHead;
+import grep.Pattern.GroupTail;
+import grep.Pattern.Last;
+import grep.Pattern.Node;
+import grep.Pattern.Repeat;
+
+/*
+ * Looks for the shapes that make the backtracker take an exponential number of steps on inputs that almost match: an
+ * unbounded repetition that can split the same characters between its iterations in more than one way.
+ * That is either an unbounded repetition nested in another one, as in `(\w+\w+)+`, or alternatives that can start
+ * with the same character, as in `(a|ab)*`.
+ * Atomic groups and possessive repetitions never give back what they matched, so nothing under them is reported; a
+ * loop over a single character that is followed by a character it cannot match is not ambiguous either.
+ */
+class RiskAnalyzer {
+
+	final List<String> risks = new ArrayList<>();
+
+	RiskAnalyzer(Node root) {
+		visitChain(root.next);
+	}
+
+	private void visitChain(Node node) {
+		while (!(node instanceof Last)) {
+			switch (node) {
+				case Repeat repeat when !repeat.possessive -> {
+					if (repeat.max == Repeat.UNBOUNDED) {
+						analyze(repeat);
+					}
+
+					visitChain(repeat.atom);
+				}
+
+				case Branch branch -> branch.atoms.forEach(this::visitChain);
+				default -> {}
+			}
+
+			node = node.next;
+		}
+	}
+
+	private void analyze(Repeat repeat) {
+		final var fragment = render(repeat);
+
+		final var nested = findUnboundedRepeat(repeat.atom);
+		if (nested != null) {
+			risks.add("`%s`: nested quantifier `%s` inside `%s`".formatted(fragment, render(nested), repeat));
+			return;
+		}
+
+		final var branch = findOverlappingBranch(repeat.atom);
+		if (branch != null) {
+			risks.add("`%s`: alternatives `%s` can start with the same character inside `%s`".formatted(fragment, render(branch), repeat));
+		}
+	}
+
+	private static Repeat findUnboundedRepeat(Node node) {
+		while (!(node instanceof Last)) {
+			switch (node) {
+				case Repeat repeat when !repeat.possessive -> {
+					if (repeat.max == Repeat.UNBOUNDED && !Program.Compiler.isNullable(repeat.atom) && !isFollowedByDisjoint(repeat)) {
+						return repeat;
+					}
+
+					final var nested = findUnboundedRepeat(repeat.atom);
+					if (nested != null) {
+						return nested;
+					}
+				}
+
+				case Branch branch -> {
+					for (final var atom : branch.atoms) {
+						final var nested = findUnboundedRepeat(atom);
+						if (nested != null) {
+							return nested;
+						}
+					}
+				}
+
+				default -> {}
+			}
+
+			node = node.next;
+		}
+
+		return null;
+	}
+
+	/* like the rewrite of the compiler into a run, but only looking at the next character */
+	private static boolean isFollowedByDisjoint(Repeat repeat) {
+		if (!(repeat.atom instanceof Char char_ && char_.next instanceof Last)) {
+			return false;
+		}
+
+		var next = repeat.next;
+		while (next instanceof GroupHead || next instanceof GroupTail) {
+			next = next.next;
+		}
+
+		return next instanceof Char following && CharPredicate.disjoint(char_.predicate, following.predicate);
+	}
+
+	private static Branch findOverlappingBranch(Node node) {
+		while (!(node instanceof Last)) {
+			switch (node) {
+				case Branch branch -> {
+					if (hasOverlappingAtoms(branch)) {
+						return branch;
+					}
+
+					for (final var atom : branch.atoms) {
+						final var nested = findOverlappingBranch(atom);
+						if (nested != null) {
+							return nested;
+						}
+					}
+				}
+
+				case Repeat repeat when !repeat.possessive -> {
+					final var nested = findOverlappingBranch(repeat.atom);
+					if (nested != null) {
+						return nested;
+					}
+				}
+
+				default -> {}
+			}
+
+			node = node.next;
+		}
+
+		return null;
+	}
+
+	/* an alternative that can be empty or that starts with something else than a character is taken as overlapping */
+	private static boolean hasOverlappingAtoms(Branch branch) {
+		final var firsts = new ArrayList<CharPredicate>();
+
+		for (final var atom : branch.atoms) {
+			var node = atom;
+			while (node instanceof GroupHead || node instanceof GroupTail) {
+				node = node.next;
+			}
+
+			if (!(node instanceof Char char_)) {
+				return true;
+			}
+
+			for (final var first : firsts) {
+				if (!CharPredicate.disjoint(first, char_.predicate)) {
+					return true;
+				}
+			}
+
+			firsts.add(char_.predicate);
+		}
+
+		return false;
+	}
+
+	/* back to an expression, close enough to the original one to be recognized in a message */
+	static String render(Node node) {
+		final var builder = new StringBuilder();
+		render(node, builder);
+
+		return builder.toString();
+	}
+
+	private static void render(Node node, StringBuilder builder) {
+		switch (node) {
+			case Char char_ -> builder.append(char_.predicate);
+			case Begin begin -> builder.append('^');
+			case End end -> builder.append('$');
+			case GroupHead groupHead -> builder.append('(');
+			case GroupTail groupTail -> builder.append(')');
+			case BackReference backReference -> builder.append(backReference);
+
+			case Repeat repeat -> {
+				renderChain(repeat.atom, builder);
+				builder.append(repeat);
+			}
+
+			case Branch branch -> {
+				for (var index = 0; index < branch.atoms.size(); ++index) {
+					if (index != 0) {
+						builder.append('|');
+					}
+
+					renderChain(branch.atoms.get(index), builder);
+				}
+			}
+
+			case Atomic atomic -> {
+				builder.append("(?>");
+				renderChain(atomic.atom, builder);
+				builder.append(')');
+			}
+
+			default -> {}
+		}
+	}
+
+	private static void renderChain(Node node, StringBuilder builder) {
+		while (!(node instanceof Last)) {
+			render(node, builder);
+			node = node.next;
+		}
+	}
+
+}
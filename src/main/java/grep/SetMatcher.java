@@ -0,0 +1,280 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/* The state of a search of a pattern set, a matcher must not be shared between threads. */
+public class SetMatcher {
+
+	private static final int UNKNOWN = -2;
+
+	final PatternSet patterns;
+	CharSequence text;
+
+	private final Matcher single;
+	private final Matcher[] fallbacks;
+	private final ByteSequence bytes = new ByteSequence();
+
+	private final boolean[] seen;
+	private final int[] hits;
+	private int hitCount;
+
+	private final IntConsumer literalHit;
+	private final IntConsumer patternHit = this::add;
+
+	/* the next match of every pattern from the position, or -1 once there is none; only used to iterate over matches */
+	private Matcher[] matchers;
+	private int[] matchStarts;
+	private int[] matchEnds;
+	private int position;
+	private int start = -1;
+	private int end = -1;
+
+	SetMatcher(PatternSet patterns) {
+		this.patterns = patterns;
+		this.text = "";
+
+		this.single = patterns.single != null ? patterns.single.matcher("") : null;
+
+		this.fallbacks = new Matcher[patterns.single != null ? 0 : patterns.fallbacks.length];
+		for (var index = 0; index < fallbacks.length; ++index) {
+			fallbacks[index] = patterns.fallbacks[index].matcher("");
+		}
+
+		this.seen = new boolean[patterns.size()];
+		this.hits = new int[patterns.size()];
+
+		final var literalIndexes = patterns.literalIndexes;
+		this.literalHit = (id) -> add(literalIndexes[id]);
+	}
+
+	public SetMatcher reset(CharSequence text) {
+		this.text = text;
+
+		for (var index = 0; index < hitCount; ++index) {
+			seen[hits[index]] = false;
+		}
+
+		hitCount = 0;
+
+		if (matchers != null) {
+			for (var index = 0; index < matchers.length; ++index) {
+				matchers[index].reset(text);
+				matchStarts[index] = UNKNOWN;
+			}
+
+			position = 0;
+			start = end = -1;
+		}
+
+		return this;
+	}
+
+	/* stops at the first pattern that matches, without telling which one it was */
+	public boolean find() {
+		reset(text);
+
+		final var length = text.length();
+
+		if (single != null) {
+			return single.reset(text).recognize();
+		}
+
+		if (patterns.literals != null && patterns.literals.containsAny(text, 0, length)) {
+			return true;
+		}
+
+		if (patterns.automaton != null && patterns.automaton.find(text, 0, 0, length)) {
+			return true;
+		}
+
+		for (final var fallback : fallbacks) {
+			if (fallback.reset(text).recognize()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Same as find(), but over a line of UTF-8 bytes that is only decoded for the patterns that need its characters.
+	 * The matcher is not reset to the line.
+	 */
+	public boolean findUtf8(byte[] array, int start, int end) {
+		if (!Utf8Compiler.isBasicMultilingual(array, start, end) || (single != null && single.pattern.automaton == null)) {
+			return reset(new String(array, start, end - start, StandardCharsets.UTF_8)).find();
+		}
+
+		final var bytes = this.bytes.set(array, start, end);
+		final var length = end - start;
+
+		if (single != null) {
+			return single.pattern.findUtf8(bytes, 0, length);
+		}
+
+		if (patterns.literals != null && patterns.utf8Literals().containsAny(bytes, 0, length)) {
+			return true;
+		}
+
+		if (patterns.automaton != null && patterns.utf8Automaton().find(bytes, 0, 0, length)) {
+			return true;
+		}
+
+		if (fallbacks.length != 0) {
+			final var text = new String(array, start, end - start, StandardCharsets.UTF_8);
+
+			for (final var fallback : fallbacks) {
+				if (fallback.reset(text).recognize()) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/* collects every pattern that matches, their indexes are then available in ascending order */
+	public boolean findAll() {
+		reset(text);
+
+		final var length = text.length();
+
+		if (single != null) {
+			if (single.reset(text).recognize()) {
+				add(0);
+			}
+
+			return hitCount != 0;
+		}
+
+		if (patterns.literals != null) {
+			patterns.literals.findAll(text, 0, length, literalHit);
+		}
+
+		if (patterns.automaton != null) {
+			patterns.automaton.findAll(text, 0, 0, length, patternHit);
+		}
+
+		for (var index = 0; index < fallbacks.length; ++index) {
+			if (fallbacks[index].reset(text).recognize()) {
+				add(patterns.fallbackIndexes[index]);
+			}
+		}
+
+		Arrays.sort(hits, 0, hitCount);
+
+		return hitCount != 0;
+	}
+
+	/*
+	 * Iterates over the matches of the line, of any of the patterns: the leftmost one first, and the longest of those
+	 * starting at the same index. Matches never overlap, the next one is searched from the end of the previous one.
+	 */
+	public boolean nextMatch() {
+		if (matchers == null) {
+			final var patterns = this.patterns.patterns();
+
+			matchers = new Matcher[patterns.length];
+			matchStarts = new int[patterns.length];
+			matchEnds = new int[patterns.length];
+
+			for (var index = 0; index < patterns.length; ++index) {
+				matchers[index] = patterns[index].matcher(text);
+				matchStarts[index] = UNKNOWN;
+			}
+		}
+
+		start = end = -1;
+
+		final var length = text.length();
+		if (position > length) {
+			return false;
+		}
+
+		for (var index = 0; index < matchers.length; ++index) {
+			var matchStart = matchStarts[index];
+
+			/* a match found before, that is still ahead, is also the next one from the position */
+			if (matchStart == UNKNOWN || (matchStart != -1 && matchStart < position)) {
+				final var matcher = matchers[index];
+
+				if (matcher.find(position)) {
+					matchStart = matchStarts[index] = matcher.start();
+					matchEnds[index] = matcher.end();
+				} else {
+					matchStart = matchStarts[index] = -1;
+				}
+			}
+
+			if (matchStart != -1 && (start == -1 || matchStart < start || (matchStart == start && matchEnds[index] > end))) {
+				start = matchStart;
+				end = matchEnds[index];
+			}
+		}
+
+		if (start == -1) {
+			position = length + 1;
+			return false;
+		}
+
+		position = start == end ? end + 1 : end;
+
+		return true;
+	}
+
+	/* the bounds of the current match, in characters of the text */
+	public int start() {
+		checkMatch();
+
+		return start;
+	}
+
+	public int end() {
+		checkMatch();
+
+		return end;
+	}
+
+	private void checkMatch() {
+		if (start == -1) {
+			throw new IllegalStateException("no match available");
+		}
+	}
+
+	public int hitCount() {
+		return hitCount;
+	}
+
+	public int hit(int index) {
+		if (index >= hitCount) {
+			throw new IndexOutOfBoundsException("index %d is out of the %d hits".formatted(index, hitCount));
+		}
+
+		return hits[index];
+	}
+
+	/* the expressions of the hits, joined as an alternation */
+	public String hitExpressions() {
+		final var builder = new StringBuilder();
+
+		for (var index = 0; index < hitCount; ++index) {
+			if (index != 0) {
+				builder.append('|');
+			}
+
+			builder.append(patterns.expression(hits[index]));
+		}
+
+		return builder.toString();
+	}
+
+	private void add(int patternIndex) {
+		if (!seen[patternIndex]) {
+			seen[patternIndex] = true;
+			hits[hitCount++] = patternIndex;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package grep;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * What a search did, to tune the number of jobs and how far the files are read ahead: how much was searched and how
+ * fast, how long each stage was busy, and how deep the window between the readers and the writer got.
+ * The readers and the workers add to the counters concurrently, the fields that are not adders are only written by the
+ * writer. Scanning a file that was not read ahead includes reading it.
+ */
+class Statistics {
+
+	private static final double MEBIBYTE = 1024 * 1024;
+	private static final double SECOND = 1_000_000_000;
+
+	final long startTime = System.nanoTime();
+
+	final LongAdder readAheadFiles = new LongAdder();
+	final LongAdder mappedFiles = new LongAdder();
+	final LongAdder readNanos = new LongAdder();
+	final LongAdder scanNanos = new LongAdder();
+	final LongAdder bytes = new LongAdder();
+	final LongAdder lines = new LongAdder();
+	final LongAdder selectedLines = new LongAdder();
+
+	long files;
+	long skippedFiles;
+	long waitNanos;
+
+	private int maximumDepth;
+	private long depthSum;
+	private long depthSamples;
+	private long maximumReadAheadBytes;
+
+	void record(long scanNanos, long bytes, long lines, long selectedLines) {
+		this.scanNanos.add(scanNanos);
+		this.bytes.add(bytes);
+		this.lines.add(lines);
+		this.selectedLines.add(selectedLines);
+	}
+
+	/* sampled every time a file or a chunk joins the window */
+	void recordDepth(int depth, long readAheadBytes) {
+		maximumDepth = Math.max(maximumDepth, depth);
+		maximumReadAheadBytes = Math.max(maximumReadAheadBytes, readAheadBytes);
+
+		depthSum += depth;
+		++depthSamples;
+	}
+
+	void print(PrintStream stream) {
+		final var elapsed = (System.nanoTime() - startTime) / SECOND;
+		final var mebibytes = bytes.sum() / MEBIBYTE;
+
+		stream.println(String.format(Locale.ROOT, "files: %d, %d read ahead, %d mapped, %d skipped by the index", files, readAheadFiles.sum(), mappedFiles.sum(), skippedFiles));
+		stream.println(String.format(Locale.ROOT, "searched: %.1f MiB, %d lines, %d selected", mebibytes, lines.sum(), selectedLines.sum()));
+		stream.println(String.format(Locale.ROOT, "throughput: %.3f s, %.1f MiB/s, %.0f lines/s", elapsed, mebibytes / elapsed, lines.sum() / elapsed));
+		stream.println(String.format(Locale.ROOT, "busy: reading ahead %.3f s, scanning %.3f s, writer waiting %.3f s", readNanos.sum() / SECOND, scanNanos.sum() / SECOND, waitNanos / SECOND));
+
+		if (depthSamples != 0) {
+			stream.println(String.format(Locale.ROOT, "window: %d files at most, %.1f on average, %.1f MiB read ahead at most", maximumDepth, (double) depthSum / depthSamples, maximumReadAheadBytes / MEBIBYTE));
+		}
+	}
+
+}
@@ -0,0 +1,750 @@
+package grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import grep.TrigramQuery.All;
+import grep.TrigramQuery.And;
+import grep.TrigramQuery.Or;
+import grep.TrigramQuery.Trigram;
+import lombok.SneakyThrows;
+
+/*
+ * The files of a directory that hold every trigram, stored in the directory itself so that a recursive search only has
+ * to open the files that can satisfy the trigram query of its patterns.
+ * Trigrams are taken over the bytes of every line, without the ones that span a newline. Each file is recorded with its
+ * modification time and size: a file that changed, or that is not indexed yet, is always a candidate, which keeps the
+ * results exact until the index is built again. Building again only reads the files that changed.
+ *
+ * The file is big-endian: a magic, the indexed files (their path relative to the directory, with `/` as separator,
+ * their modification time in nanoseconds and their size), the trigrams in ascending order with where their postings
+ * are, and then the postings: the identifiers of the files, as deltas encoded in 7-bit groups.
+ * Only the table of files is read when the index is opened, the trigrams are mapped and binary searched in place.
+ * Building sorts the (trigram, file) pairs in runs of bounded size, spilled to temporary files and merged at the end,
+ * so that neither reading nor building holds the whole index in memory.
+ */
+class TrigramIndex {
+
+	static final String FILE_NAME = ".grep-index";
+
+	private static final String TEMPORARY_FILE_NAME = FILE_NAME + ".tmp";
+	private static final long MAGIC = 0x4752455054524931L; /* "GREPTRI1" */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int TRIGRAM_COUNT = 1 << 24;
+
+	/* the modification time and the size of a file that could not be read, no file on disk has them */
+	private static final long UNREADABLE = -1;
+
+	/* trigram, count, offset and length of the postings */
+	private static final int ENTRY_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+	/* 32 MiB of pairs are sorted in memory before being spilled */
+	static final int RUN_LENGTH = 4 * 1024 * 1024;
+
+	final Path file;
+	final List<String> paths;
+	private final long[] modifiedTimes;
+	private final long[] sizes;
+	private final Map<String, Integer> identifiers = new HashMap<>();
+
+	/* mapped from the file, ENTRY_SIZE bytes per trigram */
+	private final ByteBuffer entries;
+	private final int trigramCount;
+
+	private TrigramIndex(Path file, List<String> paths, long[] modifiedTimes, long[] sizes, ByteBuffer entries) {
+		this.file = file;
+		this.paths = paths;
+		this.modifiedTimes = modifiedTimes;
+		this.sizes = sizes;
+		this.entries = entries;
+		this.trigramCount = entries.capacity() / ENTRY_SIZE;
+
+		for (var identifier = 0; identifier < paths.size(); ++identifier) {
+			identifiers.put(paths.get(identifier), identifier);
+		}
+	}
+
+	/* the index of the directory, or null when it has none or when it cannot be read */
+	static TrigramIndex open(Path directory) {
+		final var file = directory.resolve(FILE_NAME);
+
+		try (
+			final var channel = FileChannel.open(file);
+			final var input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))
+		) {
+			if (input.readLong() != MAGIC) {
+				return null;
+			}
+
+			final var fileCount = input.readInt();
+			final var paths = new ArrayList<String>(fileCount);
+			final var modifiedTimes = new long[fileCount];
+			final var sizes = new long[fileCount];
+
+			var position = (long) Long.BYTES + Integer.BYTES;
+			for (var identifier = 0; identifier < fileCount; ++identifier) {
+				final var length = input.readInt();
+
+				paths.add(new String(input.readNBytes(length), StandardCharsets.UTF_8));
+				modifiedTimes[identifier] = input.readLong();
+				sizes[identifier] = input.readLong();
+
+				position += Integer.BYTES + length + Long.BYTES + Long.BYTES;
+			}
+
+			final var trigramCount = input.readInt();
+			position += Integer.BYTES;
+
+			if (trigramCount < 0 || position + (long) trigramCount * ENTRY_SIZE > channel.size()) {
+				return null;
+			}
+
+			final var entries = channel.map(MapMode.READ_ONLY, position, (long) trigramCount * ENTRY_SIZE);
+
+			return new TrigramIndex(file, paths, modifiedTimes, sizes, entries);
+		} catch (NoSuchFileException exception) {
+			return null;
+		} catch (IOException | RuntimeException exception) {
+			/* truncated, or written by something else */
+			return null;
+		}
+	}
+
+	/* the identifiers of the indexed files that satisfy the query */
+	BitSet candidates(TrigramQuery query) throws IOException {
+		try (
+			final var channel = FileChannel.open(file)
+		) {
+			return candidates(channel, query, new HashMap<>());
+		}
+	}
+
+	private BitSet candidates(FileChannel channel, TrigramQuery query, Map<Integer, BitSet> cache) throws IOException {
+		return switch (query) {
+			case All all -> {
+				final var files = new BitSet();
+				files.set(0, paths.size());
+
+				yield files;
+			}
+
+			case Trigram trigram -> {
+				var files = cache.get(trigram.value());
+				if (files == null) {
+					files = postings(channel, trigram.value());
+					cache.put(trigram.value(), files);
+				}
+
+				yield (BitSet) files.clone();
+			}
+
+			case And and -> {
+				BitSet files = null;
+
+				for (final var operand : and.queries()) {
+					final var operandFiles = candidates(channel, operand, cache);
+
+					if (files == null) {
+						files = operandFiles;
+					} else {
+						files.and(operandFiles);
+					}
+
+					if (files.isEmpty()) {
+						break;
+					}
+				}
+
+				yield files;
+			}
+
+			case Or or -> {
+				final var files = new BitSet();
+
+				for (final var operand : or.queries()) {
+					files.or(candidates(channel, operand, cache));
+				}
+
+				yield files;
+			}
+		};
+	}
+
+	private BitSet postings(FileChannel channel, int trigram) throws IOException {
+		final var entry = find(trigram);
+		if (entry < 0) {
+			return new BitSet();
+		}
+
+		return postingsAt(channel, entry);
+	}
+
+	/* the entry of the trigram, or -1 */
+	private int find(int trigram) {
+		var low = 0;
+		var high = trigramCount - 1;
+
+		while (low <= high) {
+			final var middle = (low + high) >>> 1;
+			final var value = entries.getInt(middle * ENTRY_SIZE);
+
+			if (value < trigram) {
+				low = middle + 1;
+			} else if (value > trigram) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	private BitSet postingsAt(FileChannel channel, int entry) throws IOException {
+		final var files = new BitSet();
+
+		final var base = entry * ENTRY_SIZE;
+		final var count = entries.getInt(base + Integer.BYTES);
+		final var offset = entries.getLong(base + Integer.BYTES * 2);
+		final var length = entries.getInt(base + Integer.BYTES * 2 + Long.BYTES);
+
+		final var buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("truncated index: " + file);
+			}
+		}
+
+		buffer.flip();
+
+		var identifier = -1;
+		for (var index = 0; index < count; ++index) {
+			identifier += readVarint(buffer) + 1;
+			files.set(identifier);
+		}
+
+		return files;
+	}
+
+	/* whether the file has to be searched: it is a candidate, or it is not known as it is now */
+	boolean mayMatch(String relativePath, BasicFileAttributes attributes, BitSet candidates) {
+		final var identifier = identifiers.get(relativePath);
+		if (identifier == null || !isUnchanged(identifier, attributes)) {
+			return true;
+		}
+
+		return candidates.get(identifier);
+	}
+
+	private boolean isUnchanged(int identifier, BasicFileAttributes attributes) {
+		return modifiedTimes[identifier] == modifiedTime(attributes) && sizes[identifier] == attributes.size();
+	}
+
+	static String relativePath(Path directory, Path file) {
+		final var path = directory.relativize(file).toString();
+
+		return file.getFileSystem().getSeparator().equals("/") ? path : path.replace(file.getFileSystem().getSeparator(), "/");
+	}
+
+	/* only the index at the root of the directory, a file with the same name in a subdirectory is searched like any other */
+	static boolean isIndexFile(Path directory, Path file) {
+		return file.equals(directory.resolve(FILE_NAME)) || file.equals(directory.resolve(TEMPORARY_FILE_NAME));
+	}
+
+	/* builds the index of the directory again, the postings of the files that did not change are taken from the previous one */
+	static Summary build(Path directory) throws IOException {
+		return build(directory, RUN_LENGTH);
+	}
+
+	static Summary build(Path directory, int runLength) throws IOException {
+		final var previous = open(directory);
+
+		final var files = new ArrayList<IndexedFile>();
+		final var unreadableCount = new int[1];
+
+		Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && !isIndexFile(directory, file)) {
+					files.add(new IndexedFile(file, relativePath(directory, file), modifiedTime(attributes), attributes.size()));
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			/* a file, or a directory, that is not in the index is searched like one that is new */
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exception) {
+				++unreadableCount[0];
+
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+
+		files.sort((left, right) -> left.relativePath().compareTo(right.relativePath()));
+
+		/* previous identifiers of the files that are kept, to their new one */
+		final int[] reused = previous != null ? new int[previous.paths.size()] : new int[0];
+		Arrays.fill(reused, -1);
+
+		final var isReused = new boolean[files.size()];
+
+		var reusedCount = 0;
+		for (var identifier = 0; identifier < files.size(); ++identifier) {
+			final var indexed = files.get(identifier);
+
+			if (previous != null) {
+				final var previousIdentifier = previous.identifiers.get(indexed.relativePath());
+
+				if (previousIdentifier != null && previous.modifiedTimes[previousIdentifier] == indexed.modifiedTime() && previous.sizes[previousIdentifier] == indexed.size()) {
+					reused[previousIdentifier] = identifier;
+					isReused[identifier] = true;
+					++reusedCount;
+				}
+			}
+		}
+
+		try (
+			final var pairs = new Pairs(runLength)
+		) {
+			if (reusedCount != 0) {
+				previous.copyPostings(reused, pairs);
+			}
+
+			final var scanner = new Scanner();
+			for (var identifier = 0; identifier < files.size(); ++identifier) {
+				if (isReused[identifier]) {
+					continue;
+				}
+
+				final var indexed = files.get(identifier);
+				if (!scanner.scan(indexed.path(), identifier, pairs)) {
+					/* it keeps its identifier, but is never taken as unchanged: it is searched as if it was not indexed */
+					files.set(identifier, new IndexedFile(indexed.path(), indexed.relativePath(), UNREADABLE, UNREADABLE));
+					++unreadableCount[0];
+				}
+			}
+
+			final var trigramCount = write(directory, files, pairs);
+
+			return new Summary(files.size(), reusedCount, trigramCount, unreadableCount[0]);
+		}
+	}
+
+	private void copyPostings(int[] reused, Pairs pairs) throws IOException {
+		try (
+			final var channel = FileChannel.open(file)
+		) {
+			for (var entry = 0; entry < trigramCount; ++entry) {
+				final var trigram = entries.getInt(entry * ENTRY_SIZE);
+				final var files = postingsAt(channel, entry);
+
+				for (var identifier = files.nextSetBit(0); identifier >= 0; identifier = files.nextSetBit(identifier + 1)) {
+					if (reused[identifier] != -1) {
+						pairs.add(trigram, reused[identifier]);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * The postings are encoded while the pairs are merged, into a temporary file along with their entries, since the
+	 * number of trigrams is only known at the end. Everything is then written aside and moved over the previous index, a
+	 * search never sees half of one.
+	 */
+	private static int write(Path directory, List<IndexedFile> files, Pairs pairs) throws IOException {
+		final var body = Files.createTempFile("grep-index-", ".postings");
+		final var table = Files.createTempFile("grep-index-", ".entries");
+
+		try {
+			var trigramCount = 0;
+
+			try (
+				final var bodyOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(body)));
+				final var tableOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(table)))
+			) {
+				final var encoder = new PostingEncoder();
+
+				var offset = 0L;
+				var current = -1;
+
+				for (final var iterator = pairs.sorted(); iterator.hasNext();) {
+					final var pair = iterator.nextLong();
+					final var trigram = (int) (pair >>> 32);
+
+					if (trigram != current) {
+						if (current != -1) {
+							offset += encoder.flush(current, offset, bodyOutput, tableOutput);
+							++trigramCount;
+						}
+
+						current = trigram;
+					}
+
+					encoder.add((int) pair);
+				}
+
+				if (current != -1) {
+					encoder.flush(current, offset, bodyOutput, tableOutput);
+					++trigramCount;
+				}
+			}
+
+			final var encodedPaths = new byte[files.size()][];
+			long headerSize = Long.BYTES + Integer.BYTES + Integer.BYTES;
+			for (var identifier = 0; identifier < files.size(); ++identifier) {
+				encodedPaths[identifier] = files.get(identifier).relativePath().getBytes(StandardCharsets.UTF_8);
+				headerSize += Integer.BYTES + encodedPaths[identifier].length + Long.BYTES + Long.BYTES;
+			}
+
+			headerSize += (long) trigramCount * ENTRY_SIZE;
+
+			final var temporary = directory.resolve(TEMPORARY_FILE_NAME);
+
+			try (
+				final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+				final var tableInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(table)))
+			) {
+				output.writeLong(MAGIC);
+
+				output.writeInt(files.size());
+				for (var identifier = 0; identifier < files.size(); ++identifier) {
+					final var indexed = files.get(identifier);
+
+					output.writeInt(encodedPaths[identifier].length);
+					output.write(encodedPaths[identifier]);
+					output.writeLong(indexed.modifiedTime());
+					output.writeLong(indexed.size());
+				}
+
+				output.writeInt(trigramCount);
+
+				/* the offsets were relative to the postings, which start after the header */
+				for (var entry = 0; entry < trigramCount; ++entry) {
+					output.writeInt(tableInput.readInt());
+					output.writeInt(tableInput.readInt());
+					output.writeLong(headerSize + tableInput.readLong());
+					output.writeInt(tableInput.readInt());
+				}
+
+				Files.copy(body, output);
+			}
+
+			Files.move(temporary, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			return trigramCount;
+		} finally {
+			Files.deleteIfExists(body);
+			Files.deleteIfExists(table);
+		}
+	}
+
+	/* the identifiers of one trigram, as they come out of the merge in ascending order */
+	private static class PostingEncoder {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int previous = -1;
+		private int count;
+
+		void add(int identifier) {
+			var delta = identifier - previous - 1;
+			previous = identifier;
+			++count;
+
+			while ((delta & ~0x7F) != 0) {
+				bytes.write((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+			}
+
+			bytes.write(delta);
+		}
+
+		/* returns the length of the postings that were written */
+		int flush(int trigram, long offset, DataOutputStream body, DataOutputStream table) throws IOException {
+			final var length = bytes.size();
+
+			table.writeInt(trigram);
+			table.writeInt(count);
+			table.writeLong(offset);
+			table.writeInt(length);
+
+			bytes.writeTo(body);
+
+			bytes.reset();
+			previous = -1;
+			count = 0;
+
+			return length;
+		}
+
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		var value = 0;
+
+		for (var shift = 0;; shift += 7) {
+			final var current = buffer.get();
+			value |= (current & 0x7F) << shift;
+
+			if ((current & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private static long modifiedTime(BasicFileAttributes attributes) {
+		return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+	}
+
+	/*
+	 * Collects the distinct trigrams of a file, one bit per possible trigram. Only the bits that were set are cleared
+	 * afterwards, the table is kept from one file to the next.
+	 */
+	private static class Scanner {
+
+		private final long[] seen = new long[TRIGRAM_COUNT / Long.SIZE];
+		private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+		private int[] touched = new int[1024];
+		private int touchedCount;
+
+		/* false when the file could not be read to its end, nothing is added for it then */
+		boolean scan(Path path, int identifier, Pairs pairs) throws IOException {
+			try {
+				read(path);
+			} catch (IOException exception) {
+				forget();
+				return false;
+			}
+
+			for (var index = 0; index < touchedCount; ++index) {
+				pairs.add(touched[index], identifier);
+			}
+
+			forget();
+			return true;
+		}
+
+		private void read(Path path) throws IOException {
+			try (
+				final InputStream input = Files.newInputStream(path)
+			) {
+				var window = 0;
+
+				/* bytes in the window since the last newline */
+				var length = 0;
+
+				int read;
+				while ((read = input.read(buffer)) != -1) {
+					for (var index = 0; index < read; ++index) {
+						final var current = buffer[index] & 0xFF;
+
+						if (current == '\n') {
+							length = 0;
+							continue;
+						}
+
+						window = (window << 8 | current) & (TRIGRAM_COUNT - 1);
+
+						if (++length >= 3) {
+							add(window);
+						}
+					}
+				}
+			}
+
+		}
+
+		private void forget() {
+			for (var index = 0; index < touchedCount; ++index) {
+				seen[touched[index] >>> 6] = 0;
+			}
+
+			touchedCount = 0;
+		}
+
+		private void add(int trigram) {
+			final var bit = 1L << trigram;
+			if ((seen[trigram >>> 6] & bit) != 0) {
+				return;
+			}
+
+			seen[trigram >>> 6] |= bit;
+
+			if (touchedCount == touched.length) {
+				touched = Arrays.copyOf(touched, touchedCount * 2);
+			}
+
+			touched[touchedCount++] = trigram;
+		}
+
+	}
+
+	/*
+	 * The (trigram, file) pairs packed in longs, which sort by trigram and then by file. A full buffer is sorted and
+	 * spilled as a run, the runs are merged back when the pairs are read in order.
+	 */
+	private static class Pairs implements Closeable {
+
+		private final long[] buffer;
+		private int size;
+		private final List<Path> runs = new ArrayList<>();
+		private final List<DataInputStream> inputs = new ArrayList<>();
+
+		Pairs(int runLength) {
+			this.buffer = new long[runLength];
+		}
+
+		void add(int trigram, int identifier) throws IOException {
+			if (size == buffer.length) {
+				spill();
+			}
+
+			buffer[size++] = (long) trigram << 32 | identifier;
+		}
+
+		private void spill() throws IOException {
+			Arrays.sort(buffer, 0, size);
+
+			final var run = Files.createTempFile("grep-index-", ".run");
+			runs.add(run);
+
+			try (
+				final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))
+			) {
+				output.writeInt(size);
+
+				for (var index = 0; index < size; ++index) {
+					output.writeLong(buffer[index]);
+				}
+			}
+
+			size = 0;
+		}
+
+		/* can only be called once, every pair is then read from a run */
+		PrimitiveIterator.OfLong sorted() throws IOException {
+			if (runs.isEmpty()) {
+				Arrays.sort(buffer, 0, size);
+				return Arrays.stream(buffer, 0, size).iterator();
+			}
+
+			if (size != 0) {
+				spill();
+			}
+
+			final var heads = new PriorityQueue<Run>((left, right) -> Long.compare(left.head, right.head));
+			for (final var run : runs) {
+				final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+				inputs.add(input);
+
+				final var head = new Run(input, input.readInt());
+				if (head.advance()) {
+					heads.add(head);
+				}
+			}
+
+			return new PrimitiveIterator.OfLong() {
+
+				@Override
+				public boolean hasNext() {
+					return !heads.isEmpty();
+				}
+
+				@Override
+				@SneakyThrows
+				public long nextLong() {
+					final var run = heads.poll();
+					final var value = run.head;
+
+					if (run.advance()) {
+						heads.add(run);
+					}
+
+					return value;
+				}
+
+			};
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (final var input : inputs) {
+				input.close();
+			}
+
+			for (final var run : runs) {
+				Files.deleteIfExists(run);
+			}
+		}
+
+		private static class Run {
+
+			private final DataInputStream input;
+			private int remaining;
+			long head;
+
+			Run(DataInputStream input, int count) {
+				this.input = input;
+				this.remaining = count;
+			}
+
+			boolean advance() throws IOException {
+				if (remaining == 0) {
+					return false;
+				}
+
+				--remaining;
+				head = input.readLong();
+
+				return true;
+			}
+
+		}
+
+	}
+
+	private record IndexedFile(
+		Path path,
+		String relativePath,
+		long modifiedTime,
+		long size
+	) {}
+
+	record Summary(
+		int fileCount,
+		int reusedCount,
+		int trigramCount,
+		int unreadableCount
+	) {}
+
+}
@@ -0,0 +1,464 @@
+package grep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import grep.Pattern.Atomic;
+import grep.Pattern.BackReference;
+import grep.Pattern.Begin;
+import grep.Pattern.Branch;
+import grep.Pattern.Char;
+import grep.Pattern.CharClass;
+import grep.Pattern.End;
+import grep.Pattern.GroupHead;
+import grep.Pattern.GroupTail;
+import grep.Pattern.Last;
+import grep.Pattern.Node;
+import grep.Pattern.Repeat;
+
+/*
+ * The trigrams that a file must contain for an expression to match one of its lines, as a boolean query, after
+ * "Regular Expression Matching with a Trigram Index" by Russ Cox.
+ * A query is only ever a necessary condition: a file that does not satisfy it cannot contain a match, any other one
+ * may. Trigrams are taken over the UTF-8 bytes of the strings, like the index takes them over the bytes of the files.
+ */
+sealed interface TrigramQuery {
+
+	TrigramQuery ALL = new All();
+
+	/* every file */
+	record All() implements TrigramQuery {
+
+		@Override
+		public String toString() {
+			return "*";
+		}
+
+	}
+
+	/* the three bytes, big-endian in the lower 24 bits */
+	record Trigram(int value) implements TrigramQuery {
+
+		@Override
+		public String toString() {
+			return new String(new byte[] { (byte) (value >> 16), (byte) (value >> 8), (byte) value }, StandardCharsets.ISO_8859_1);
+		}
+
+	}
+
+	record And(List<TrigramQuery> queries) implements TrigramQuery {
+
+		@Override
+		public String toString() {
+			return queries.stream().map(Object::toString).collect(Collectors.joining(" ", "(", ")"));
+		}
+
+	}
+
+	record Or(List<TrigramQuery> queries) implements TrigramQuery {
+
+		@Override
+		public String toString() {
+			return queries.stream().map(Object::toString).collect(Collectors.joining("|", "(", ")"));
+		}
+
+	}
+
+	/* any of the patterns can match */
+	static TrigramQuery of(PatternSet patterns) {
+		TrigramQuery query = null;
+
+		for (final var pattern : patterns.patterns()) {
+			final var patternQuery = of(pattern);
+			query = query == null ? patternQuery : or(query, patternQuery);
+		}
+
+		return query;
+	}
+
+	static TrigramQuery of(Pattern pattern) {
+		return Analyzer.analyze(pattern.root.next).toQuery();
+	}
+
+	static TrigramQuery and(TrigramQuery first, TrigramQuery second) {
+		if (first instanceof All) {
+			return second;
+		}
+
+		if (second instanceof All) {
+			return first;
+		}
+
+		return new And(flatten(And.class, first, second));
+	}
+
+	static TrigramQuery or(TrigramQuery first, TrigramQuery second) {
+		if (first instanceof All || second instanceof All) {
+			return ALL;
+		}
+
+		return new Or(flatten(Or.class, first, second));
+	}
+
+	/* every trigram of the string, or every file when it is too short to have one */
+	static TrigramQuery ofString(String string) {
+		if (hasUnpairedSurrogate(string)) {
+			return ALL;
+		}
+
+		final var bytes = string.getBytes(StandardCharsets.UTF_8);
+
+		var query = ALL;
+		for (var index = 0; index + 3 <= bytes.length; ++index) {
+			final var value = (bytes[index] & 0xFF) << 16 | (bytes[index + 1] & 0xFF) << 8 | bytes[index + 2] & 0xFF;
+			query = and(query, new Trigram(value));
+		}
+
+		return query;
+	}
+
+	/* any of the strings */
+	static TrigramQuery ofStrings(Set<String> strings) {
+		TrigramQuery query = null;
+
+		for (final var string : strings) {
+			final var stringQuery = ofString(string);
+			if (stringQuery instanceof All) {
+				return ALL;
+			}
+
+			query = query == null ? stringQuery : or(query, stringQuery);
+		}
+
+		return query == null ? ALL : query;
+	}
+
+	private static List<TrigramQuery> flatten(Class<? extends TrigramQuery> type, TrigramQuery first, TrigramQuery second) {
+		final var queries = new LinkedHashSet<TrigramQuery>();
+
+		for (final var query : List.of(first, second)) {
+			if (query instanceof And and && type == And.class) {
+				queries.addAll(and.queries());
+			} else if (query instanceof Or or && type == Or.class) {
+				queries.addAll(or.queries());
+			} else {
+				queries.add(query);
+			}
+		}
+
+		return List.copyOf(queries);
+	}
+
+	/* `new String(bytes, UTF_8)` could never produce it, there is no trigram to look for */
+	private static boolean hasUnpairedSurrogate(String string) {
+		for (var index = 0; index < string.length(); ++index) {
+			final var character = string.charAt(index);
+
+			if (Character.isHighSurrogate(character) && index + 1 < string.length() && Character.isLowSurrogate(string.charAt(index + 1))) {
+				++index;
+			} else if (Character.isSurrogate(character)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Every fragment of the expression is summarized by the exact strings it can match while there are few of them, or
+	 * else by the strings its matches start and end with, and by a query that its matches satisfy. Sets that grow too
+	 * large are turned into trigrams of the query, then cut down to shorter prefixes and suffixes.
+	 */
+	static class Analyzer {
+
+		static final int MAXIMUM_EXACT = 16;
+		static final int MAXIMUM_AFFIXES = 32;
+		static final int MAXIMUM_CLASS = 10;
+
+		private static final Set<String> EMPTY_STRING = Set.of("");
+
+		/* a null exact set means that the prefixes and suffixes are to be used instead */
+		record Info(
+			boolean emptyable,
+			Set<String> exact,
+			Set<String> prefixes,
+			Set<String> suffixes,
+			TrigramQuery match
+		) {
+
+			Set<String> prefixesOrExact() {
+				return exact != null ? exact : prefixes;
+			}
+
+			Set<String> suffixesOrExact() {
+				return exact != null ? exact : suffixes;
+			}
+
+			/* what every match satisfies, once the strings are turned into trigrams */
+			TrigramQuery toQuery() {
+				if (exact != null) {
+					return and(match, ofStrings(exact));
+				}
+
+				return and(and(match, ofStrings(prefixes)), ofStrings(suffixes));
+			}
+
+		}
+
+		static Info analyze(Node node) {
+			var info = exact(EMPTY_STRING);
+
+			for (; !(node instanceof Last); node = node.next) {
+				final var next = switch (node) {
+					case Char char_ -> analyze(CharClass.of(char_.predicate));
+					case Begin begin -> exact(EMPTY_STRING);
+					case End end -> exact(EMPTY_STRING);
+					case GroupHead groupHead -> exact(EMPTY_STRING);
+					case GroupTail groupTail -> exact(EMPTY_STRING);
+
+					/* whatever the group matched */
+					case BackReference backReference -> anyString();
+
+					/* giving back less can only match less */
+					case Atomic atomic -> analyze(atomic.atom);
+
+					case Repeat repeat -> analyze(repeat);
+
+					case Branch branch -> {
+						Info alternation = null;
+
+						for (final var atom : branch.atoms) {
+							final var atomInfo = analyze(atom);
+							alternation = alternation == null ? atomInfo : alternate(alternation, atomInfo);
+						}
+
+						yield alternation;
+					}
+
+					default -> throw new IllegalStateException("unexpected node: " + node);
+				};
+
+				info = concatenate(info, next);
+			}
+
+			return info;
+		}
+
+		/* U+FFFD also stands for malformed bytes, that have no trigram of their own */
+		private static Info analyze(CharClass charClass) {
+			final var ranges = charClass.toRanges();
+
+			var count = 0;
+			for (var index = 0; index < ranges.length; index += 2) {
+				count += ranges[index + 1] - ranges[index] + 1;
+			}
+
+			if (count > MAXIMUM_CLASS || charClass.test('\uFFFD')) {
+				return new Info(false, null, EMPTY_STRING, EMPTY_STRING, ALL);
+			}
+
+			final var strings = new TreeSet<String>();
+			for (var index = 0; index < ranges.length; index += 2) {
+				for (var character = ranges[index]; character <= ranges[index + 1]; ++character) {
+					strings.add(String.valueOf((char) character));
+				}
+			}
+
+			return exact(strings);
+		}
+
+		/* the first copies are kept as they are, any other is only known to be one or more copies, or none */
+		private static Info analyze(Repeat repeat) {
+			final var atom = analyze(repeat.atom);
+
+			/* `{,n}` has no minimum */
+			if (repeat.min <= 0) {
+				if (repeat.max == 1) {
+					return alternate(atom, exact(EMPTY_STRING));
+				}
+
+				return anyString();
+			}
+
+			if (repeat.max == Repeat.UNBOUNDED) {
+				var info = oneOrMore(atom);
+				for (var count = 1; count < Math.min(repeat.min, 3); ++count) {
+					info = concatenate(atom, info);
+				}
+
+				return info;
+			}
+
+			var info = atom;
+			for (var count = 1; count < Math.min(repeat.min, 3); ++count) {
+				info = concatenate(info, atom);
+			}
+
+			if (repeat.min > 3) {
+				info = concatenate(info, oneOrMore(atom));
+			}
+
+			if (repeat.max != repeat.min) {
+				info = concatenate(info, anyString());
+			}
+
+			return info;
+		}
+
+		static Info concatenate(Info first, Info second) {
+			final var match = and(first.match, second.match);
+			final var emptyable = first.emptyable && second.emptyable;
+
+			if (first.exact != null && second.exact != null && first.exact.size() * second.exact.size() <= MAXIMUM_EXACT) {
+				return simplify(new Info(emptyable, cross(first.exact, second.exact), null, null, match));
+			}
+
+			Set<String> prefixes;
+			if (first.exact != null) {
+				prefixes = cross(first.exact, second.prefixesOrExact());
+			} else if (first.emptyable) {
+				prefixes = union(first.prefixes, second.prefixesOrExact());
+			} else {
+				prefixes = first.prefixes;
+			}
+
+			Set<String> suffixes;
+			if (second.exact != null) {
+				suffixes = cross(first.suffixesOrExact(), second.exact);
+			} else if (second.emptyable) {
+				suffixes = union(second.suffixes, first.suffixesOrExact());
+			} else {
+				suffixes = second.suffixes;
+			}
+
+			/* the trigrams that straddle the two */
+			var straddling = match;
+			if (first.suffixesOrExact().size() * second.prefixesOrExact().size() <= MAXIMUM_AFFIXES) {
+				straddling = and(match, ofStrings(cross(first.suffixesOrExact(), second.prefixesOrExact())));
+			}
+
+			return simplify(new Info(emptyable, null, prefixes, suffixes, straddling));
+		}
+
+		static Info alternate(Info first, Info second) {
+			final var emptyable = first.emptyable || second.emptyable;
+
+			if (first.exact != null && second.exact != null) {
+				return simplify(new Info(emptyable, union(first.exact, second.exact), null, null, or(first.match, second.match)));
+			}
+
+			return simplify(new Info(
+				emptyable,
+				null,
+				union(first.prefixesOrExact(), second.prefixesOrExact()),
+				union(first.suffixesOrExact(), second.suffixesOrExact()),
+				or(first.toQuery(), second.toQuery())
+			));
+		}
+
+		/* a match starts like the first copy and ends like the last one */
+		private static Info oneOrMore(Info atom) {
+			return new Info(atom.emptyable, null, atom.prefixesOrExact(), atom.suffixesOrExact(), atom.toQuery());
+		}
+
+		private static Info anyString() {
+			return new Info(true, null, EMPTY_STRING, EMPTY_STRING, ALL);
+		}
+
+		private static Info exact(Set<String> strings) {
+			return new Info(strings.contains(""), strings, null, null, ALL);
+		}
+
+		private static Info simplify(Info info) {
+			var match = info.match;
+
+			if (info.exact != null) {
+				if (info.exact.size() <= MAXIMUM_EXACT) {
+					return info;
+				}
+
+				match = and(match, ofStrings(info.exact));
+				info = new Info(info.emptyable, null, info.exact, info.exact, match);
+			}
+
+			var prefixes = minimize(info.prefixes, true);
+			if (prefixes.size() > MAXIMUM_AFFIXES) {
+				match = and(match, ofStrings(prefixes));
+				prefixes = shorten(prefixes, true);
+			}
+
+			var suffixes = minimize(info.suffixes, false);
+			if (suffixes.size() > MAXIMUM_AFFIXES) {
+				match = and(match, ofStrings(suffixes));
+				suffixes = shorten(suffixes, false);
+			}
+
+			return new Info(info.emptyable, null, prefixes, suffixes, match);
+		}
+
+		/* a match that starts with a prefix also starts with any shorter one of the set, only the shortest are needed */
+		private static Set<String> minimize(Set<String> strings, boolean prefixes) {
+			final var minimized = new TreeSet<String>();
+
+			for (final var string : strings) {
+				var redundant = false;
+
+				for (final var other : strings) {
+					if (other.length() < string.length() && (prefixes ? string.startsWith(other) : string.endsWith(other))) {
+						redundant = true;
+						break;
+					}
+				}
+
+				if (!redundant) {
+					minimized.add(string);
+				}
+			}
+
+			return minimized;
+		}
+
+		/* keeps the start of every prefix, or the end of every suffix, until there are few enough of them */
+		private static Set<String> shorten(Set<String> strings, boolean keepStart) {
+			for (var length = 2; length >= 0; --length) {
+				final var shortened = new TreeSet<String>();
+
+				for (final var string : strings) {
+					final var kept = Math.min(length, string.length());
+					shortened.add(keepStart ? string.substring(0, kept) : string.substring(string.length() - kept));
+				}
+
+				if (shortened.size() <= MAXIMUM_AFFIXES) {
+					return shortened;
+				}
+			}
+
+			return EMPTY_STRING;
+		}
+
+		private static Set<String> cross(Set<String> first, Set<String> second) {
+			final var strings = new TreeSet<String>();
+
+			for (final var left : first) {
+				for (final var right : second) {
+					strings.add(left + right);
+				}
+			}
+
+			return strings;
+		}
+
+		private static Set<String> union(Set<String> first, Set<String> second) {
+			final var strings = new TreeSet<String>(first);
+			strings.addAll(second);
+
+			return strings;
+		}
+
+	}
+
+}
@@ -0,0 +1,389 @@
+package grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import grep.Pattern.AsciiArrayClass;
+import grep.Pattern.CharClass;
+import grep.Pattern.CharPredicate;
+
+/*
+ * Lowers a program over characters into one over the bytes of their UTF-8 encoding, so that lines do not have to be
+ * decoded before being searched: they are read as Latin-1, one character per byte.
+ * Every character instruction becomes an alternation of byte sequences, each byte being tested against a 256-entry
+ * table. Only the characters of the basic multilingual plane are covered, lines holding anything else (or malformed
+ * UTF-8) must be decoded and searched with the original program.
+ */
+class Utf8Compiler {
+
+	private static final int CONTINUATION = 0x80;
+	private static final int CONTINUATION_COUNT = 64;
+
+	private final Program program;
+	private final List<CharPredicate> predicates = new ArrayList<>();
+	private final Map<CharPredicate, List<Sequence>> sequencesCache = new IdentityHashMap<>();
+
+	private int[] opcodes = new int[16];
+	private int[] operands = new int[16];
+	private int[] alternates = new int[16];
+	private boolean[] remapped = new boolean[16];
+	private int size = 0;
+
+	private Utf8Compiler(Program program) {
+		this.program = program;
+	}
+
+	static Program compile(Program program) {
+		if (program.hasBackReferences || program.hasAtomicGroups) {
+			throw new IllegalArgumentException("only programs that an automaton can run can be lowered");
+		}
+
+		return new Utf8Compiler(program).compile();
+	}
+
+	private Program compile() {
+		final var starts = new int[program.size()];
+
+		for (var pc = 0; pc < program.size(); ++pc) {
+			starts[pc] = size;
+
+			final var opcode = program.opcodes[pc];
+			switch (opcode) {
+				case Program.CHAR -> emitCharacter(program.predicates[program.operands[pc]]);
+
+				/* only unbounded runs are left in an automaton's program, they are a loop over the same bytes */
+				case Program.RUN -> {
+					final var split = emit(Program.SPLIT, 0, 0);
+					operands[split] = size;
+
+					emitCharacter(program.predicates[program.operands[pc]]);
+					emit(Program.JUMP, split, 0);
+
+					alternates[split] = size;
+				}
+
+				default -> {
+					final var copy = emit(opcode, program.operands[pc], program.alternates[pc]);
+					remapped[copy] = true;
+				}
+			}
+		}
+
+		/* the targets of copied instructions are still the ones of the original program */
+		for (var pc = 0; pc < size; ++pc) {
+			if (!remapped[pc]) {
+				continue;
+			}
+
+			switch (opcodes[pc]) {
+				case Program.SPLIT -> {
+					operands[pc] = starts[operands[pc]];
+					alternates[pc] = starts[alternates[pc]];
+				}
+
+				case Program.JUMP -> operands[pc] = starts[operands[pc]];
+				case Program.PROGRESS -> alternates[pc] = starts[alternates[pc]];
+			}
+		}
+
+		return new Program(
+			Arrays.copyOf(opcodes, size),
+			Arrays.copyOf(operands, size),
+			Arrays.copyOf(alternates, size),
+			predicates.toArray(CharPredicate[]::new),
+			program.slotCount,
+			false,
+			false
+		);
+	}
+
+	private void emitCharacter(CharPredicate predicate) {
+		final var sequences = sequencesCache.computeIfAbsent(predicate, Utf8Compiler::toSequences);
+
+		if (sequences.isEmpty()) {
+			/* nothing can match */
+			emitByte(new AsciiArrayClass());
+			return;
+		}
+
+		emitAlternation(sequences);
+	}
+
+	private void emitAlternation(List<Sequence> sequences) {
+		final var jumps = new int[sequences.size() - 1];
+
+		for (var index = 0; index < sequences.size(); ++index) {
+			final var isLast = index == sequences.size() - 1;
+
+			var split = -1;
+			if (!isLast) {
+				split = emit(Program.SPLIT, 0, 0);
+				operands[split] = size;
+			}
+
+			final var sequence = sequences.get(index);
+			for (final var table : sequence.bytes()) {
+				emitByte(table);
+			}
+
+			if (!sequence.tails().isEmpty()) {
+				emitAlternation(sequence.tails());
+			}
+
+			if (!isLast) {
+				jumps[index] = emit(Program.JUMP, 0, 0);
+				alternates[split] = size;
+			}
+		}
+
+		for (final var jump : jumps) {
+			operands[jump] = size;
+		}
+	}
+
+	private void emitByte(AsciiArrayClass table) {
+		predicates.add(CharClass.of(table));
+		emit(Program.CHAR, predicates.size() - 1, 0);
+	}
+
+	private int emit(int opcode, int operand, int alternate) {
+		if (size == opcodes.length) {
+			final var capacity = size * 2;
+
+			opcodes = Arrays.copyOf(opcodes, capacity);
+			operands = Arrays.copyOf(operands, capacity);
+			alternates = Arrays.copyOf(alternates, capacity);
+			remapped = Arrays.copyOf(remapped, capacity);
+		}
+
+		opcodes[size] = opcode;
+		operands[size] = operand;
+		alternates[size] = alternate;
+		remapped[size] = false;
+
+		return size++;
+	}
+
+	/*
+	 * Sequences of two and three bytes are grouped by what can follow their first byte, which keeps the usual classes
+	 * down to a handful of alternatives: `.` is one byte, any two bytes, or three groups of three bytes.
+	 */
+	static List<Sequence> toSequences(CharPredicate predicate) {
+		final var sequences = new ArrayList<Sequence>();
+
+		final var single = new AsciiArrayClass();
+		var hasSingle = false;
+		for (var character = 0; character < 0x80; ++character) {
+			if (predicate.test((char) character)) {
+				single.add((char) character);
+				hasSingle = true;
+			}
+		}
+
+		if (hasSingle) {
+			sequences.add(new Sequence(List.of(single), List.of()));
+		}
+
+		/* continuation masks, indexed by lead byte */
+		final var twoBytes = new LinkedHashMap<Long, AsciiArrayClass>();
+		for (var lead = 0xC2; lead <= 0xDF; ++lead) {
+			final var mask = continuationMask(predicate, (lead & 0x1F) << 6);
+
+			if (mask != 0) {
+				twoBytes.computeIfAbsent(mask, (key) -> new AsciiArrayClass()).add((char) lead);
+			}
+		}
+
+		for (final var entry : twoBytes.entrySet()) {
+			sequences.add(new Sequence(List.of(entry.getValue(), toTable(entry.getKey())), List.of()));
+		}
+
+		final var threeBytes = new LinkedHashMap<List<Long>, AsciiArrayClass>();
+		for (var lead = 0xE0; lead <= 0xEF; ++lead) {
+			/* second bytes, grouped by the third bytes they can be followed with */
+			final var seconds = new LinkedHashMap<Long, Long>();
+
+			for (var second = 0; second < CONTINUATION_COUNT; ++second) {
+				final var base = ((lead & 0x0F) << 12) | (second << 6);
+				if (base < 0x800 || (base >= 0xD800 && base <= 0xDFFF)) {
+					continue;
+				}
+
+				final var mask = continuationMask(predicate, base);
+				if (mask != 0) {
+					seconds.merge(mask, 1L << second, (first, other) -> first | other);
+				}
+			}
+
+			if (seconds.isEmpty()) {
+				continue;
+			}
+
+			final var signature = new ArrayList<Long>();
+			for (final var entry : seconds.entrySet()) {
+				signature.add(entry.getValue());
+				signature.add(entry.getKey());
+			}
+
+			threeBytes.computeIfAbsent(signature, (key) -> new AsciiArrayClass()).add((char) lead);
+		}
+
+		for (final var entry : threeBytes.entrySet()) {
+			final var signature = entry.getKey();
+
+			final var tails = new ArrayList<Sequence>();
+			for (var index = 0; index < signature.size(); index += 2) {
+				tails.add(new Sequence(List.of(toTable(signature.get(index)), toTable(signature.get(index + 1))), List.of()));
+			}
+
+			sequences.add(new Sequence(List.of(entry.getValue()), tails));
+		}
+
+		return sequences;
+	}
+
+	/* which of the 64 characters starting at base are accepted */
+	private static long continuationMask(CharPredicate predicate, int base) {
+		var mask = 0L;
+
+		for (var offset = 0; offset < CONTINUATION_COUNT; ++offset) {
+			if (predicate.test((char) (base + offset))) {
+				mask |= 1L << offset;
+			}
+		}
+
+		return mask;
+	}
+
+	private static AsciiArrayClass toTable(long continuationMask) {
+		final var table = new AsciiArrayClass();
+
+		for (var offset = 0; offset < CONTINUATION_COUNT; ++offset) {
+			if ((continuationMask & (1L << offset)) != 0) {
+				table.add((char) (CONTINUATION + offset));
+			}
+		}
+
+		return table;
+	}
+
+	/* whether the bytes are well-formed UTF-8 that only encodes characters of the basic multilingual plane */
+	static boolean isBasicMultilingual(byte[] array, int start, int end) {
+		var index = start;
+
+		while (index < end) {
+			final var lead = array[index] & 0xFF;
+
+			if (lead < 0x80) {
+				++index;
+			} else if (lead >= 0xC2 && lead <= 0xDF) {
+				if (index + 1 >= end || !isContinuation(array[index + 1])) {
+					return false;
+				}
+
+				index += 2;
+			} else if (lead >= 0xE0 && lead <= 0xEF) {
+				if (index + 2 >= end || !isContinuation(array[index + 1]) || !isContinuation(array[index + 2])) {
+					return false;
+				}
+
+				final var second = array[index + 1] & 0xFF;
+
+				/* overlong, or a surrogate */
+				if ((lead == 0xE0 && second < 0xA0) || (lead == 0xED && second >= 0xA0)) {
+					return false;
+				}
+
+				index += 3;
+			} else {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Decodes a line of UTF-8 and records the offset of every character in the line, and of its end, so that the
+	 * matches found in the characters can be mapped back to the bytes. Unlike `new String(bytes, UTF_8)`, every byte of
+	 * a malformed sequence is replaced on its own. Both arrays must hold at least one more element than there are bytes.
+	 */
+	static int decode(byte[] array, int start, int end, char[] characters, int[] offsets) {
+		var count = 0;
+		var index = start;
+
+		while (index < end) {
+			final var lead = array[index] & 0xFF;
+			offsets[count] = index - start;
+
+			var length = 1;
+			var codePoint = lead;
+
+			if (lead >= 0xC2 && lead <= 0xDF && continues(array, index, end, 1)) {
+				length = 2;
+				codePoint = (lead & 0x1F) << 6 | array[index + 1] & 0x3F;
+			} else if (lead >= 0xE0 && lead <= 0xEF && continues(array, index, end, 2)) {
+				final var second = array[index + 1] & 0xFF;
+
+				/* overlong, or a surrogate */
+				if (!((lead == 0xE0 && second < 0xA0) || (lead == 0xED && second >= 0xA0))) {
+					length = 3;
+					codePoint = (lead & 0x0F) << 12 | (second & 0x3F) << 6 | array[index + 2] & 0x3F;
+				}
+			} else if (lead >= 0xF0 && lead <= 0xF4 && continues(array, index, end, 3)) {
+				final var second = array[index + 1] & 0xFF;
+
+				/* overlong, or past U+10FFFF */
+				if (!((lead == 0xF0 && second < 0x90) || (lead == 0xF4 && second >= 0x90))) {
+					length = 4;
+					codePoint = (lead & 0x07) << 18 | (second & 0x3F) << 12 | (array[index + 2] & 0x3F) << 6 | array[index + 3] & 0x3F;
+				}
+			}
+
+			if (length == 1 && lead >= 0x80) {
+				characters[count++] = '\uFFFD';
+			} else if (length == 4) {
+				characters[count++] = Character.highSurrogate(codePoint);
+				offsets[count] = index - start;
+				characters[count++] = Character.lowSurrogate(codePoint);
+			} else {
+				characters[count++] = (char) codePoint;
+			}
+
+			index += length;
+		}
+
+		offsets[count] = end - start;
+
+		return count;
+	}
+
+	private static boolean continues(byte[] array, int index, int end, int count) {
+		if (index + count >= end) {
+			return false;
+		}
+
+		for (var offset = 1; offset <= count; ++offset) {
+			if (!isContinuation(array[index + offset])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isContinuation(byte value) {
+		return (value & 0xC0) == CONTINUATION;
+	}
+
+	/* bytes to match in order, then one of the tails */
+	record Sequence(
+		List<AsciiArrayClass> bytes,
+		List<Sequence> tails
+	) {}
+
+}
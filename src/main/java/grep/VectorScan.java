@@ -0,0 +1,104 @@
+package grep;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * The vectorized side of ByteScan, only loaded when the incubator module is present.
+ * Class membership is an unsigned range check: the bytes get their sign bit flipped, like the bounds already are.
+ * The tail that does not fill a whole vector is scanned one byte at a time.
+ */
+final class VectorScan {
+
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+	private static final byte SIGN = (byte) 0x80;
+
+	private VectorScan() {}
+
+	static int indexOf(byte[] array, int from, int to, byte value) {
+		var index = from;
+
+		for (; index + SPECIES.length() <= to; index += SPECIES.length()) {
+			final var mask = ByteVector.fromArray(SPECIES, array, index).compare(VectorOperators.EQ, value);
+
+			if (mask.anyTrue()) {
+				return index + mask.firstTrue();
+			}
+		}
+
+		return ByteScan.scalarIndexOf(array, index, to, value);
+	}
+
+	static long indexOf(MemorySegment segment, long from, long to, byte value) {
+		var index = from;
+
+		for (; index + SPECIES.length() <= to; index += SPECIES.length()) {
+			final var mask = ByteVector.fromMemorySegment(SPECIES, segment, index, ByteOrder.nativeOrder()).compare(VectorOperators.EQ, value);
+
+			if (mask.anyTrue()) {
+				return index + mask.firstTrue();
+			}
+		}
+
+		return ByteScan.scalarIndexOf(segment, index, to, value);
+	}
+
+	static long count(MemorySegment segment, long from, long to, byte value) {
+		var count = 0L;
+
+		var index = from;
+		for (; index + SPECIES.length() <= to; index += SPECIES.length()) {
+			count += ByteVector.fromMemorySegment(SPECIES, segment, index, ByteOrder.nativeOrder()).compare(VectorOperators.EQ, value).trueCount();
+		}
+
+		return count + ByteScan.scalarCount(segment, index, to, value);
+	}
+
+	static int indexOfAny(byte[] array, int from, int to, ByteClass byteClass) {
+		var index = from;
+
+		for (; index + SPECIES.length() <= to; index += SPECIES.length()) {
+			final var mask = contains(ByteVector.fromArray(SPECIES, array, index), byteClass);
+
+			if (mask.anyTrue()) {
+				return index + mask.firstTrue();
+			}
+		}
+
+		return ByteScan.scalarIndexOfAny(array, index, to, byteClass);
+	}
+
+	static int indexOfNone(byte[] array, int from, int to, ByteClass byteClass) {
+		var index = from;
+
+		for (; index + SPECIES.length() <= to; index += SPECIES.length()) {
+			final var mask = contains(ByteVector.fromArray(SPECIES, array, index), byteClass).not();
+
+			if (mask.anyTrue()) {
+				return index + mask.firstTrue();
+			}
+		}
+
+		return ByteScan.scalarIndexOfNone(array, index, to, byteClass);
+	}
+
+	private static VectorMask<Byte> contains(ByteVector vector, ByteClass byteClass) {
+		final var signed = vector.lanewise(VectorOperators.XOR, SIGN);
+
+		final var lows = byteClass.lows;
+		final var highs = byteClass.highs;
+
+		var mask = SPECIES.maskAll(false);
+		for (var index = 0; index < lows.length; ++index) {
+			mask = mask.or(signed.compare(VectorOperators.GE, lows[index]).and(signed.compare(VectorOperators.LE, highs[index])));
+		}
+
+		return mask;
+	}
+
+}
@@ -0,0 +1,83 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ByteScanTest {
+
+	@Test
+	void vectorized() {
+		/* the tests are run with the incubator module, so that both sides are covered */
+		assertTrue(ByteScan.VECTORIZED);
+	}
+
+	@Test
+	void ranges() {
+		final var byteClass = ByteClass.of((character) -> (character >= 'a' && character <= 'z') || character == '_' || character >= 0xf0);
+
+		assertEquals(3, byteClass.rangeCount());
+		assertEquals("ByteClass[5f-5f, 61-7a, f0-ff]", byteClass.toString());
+	}
+
+	@Test
+	void sameAsScalar() {
+		final var random = new Random(7);
+
+		final var classes = List.of(
+			ByteClass.of((character) -> character == '\n'),
+			ByteClass.of((character) -> character >= '0' && character <= '9'),
+			ByteClass.of((character) -> character == 'x' || character >= 0x80),
+			ByteClass.of((character) -> character != ' ')
+		);
+
+		for (var round = 0; round < 2_000; ++round) {
+			final var array = new byte[random.nextInt(300)];
+			for (var index = 0; index < array.length; ++index) {
+				/* mostly letters, so that the first hit is far enough to cross a few vectors */
+				array[index] = random.nextInt(40) == 0 ? (byte) random.nextInt(256) : (byte) ('a' + random.nextInt(8));
+			}
+
+			final var from = random.nextInt(array.length + 1);
+			final var to = from + random.nextInt(array.length - from + 1);
+
+			final var value = (byte) ('a' + random.nextInt(16));
+			assertEquals(ByteScan.scalarIndexOf(array, from, to, value), ByteScan.indexOf(array, from, to, value));
+
+			for (final var byteClass : classes) {
+				assertEquals(ByteScan.scalarIndexOfAny(array, from, to, byteClass), ByteScan.indexOfAny(array, from, to, byteClass));
+				assertEquals(ByteScan.scalarIndexOfNone(array, from, to, byteClass), ByteScan.indexOfNone(array, from, to, byteClass));
+			}
+		}
+	}
+
+	@Test
+	void patternsOverBytes() {
+		final var random = new Random(11);
+
+		for (final var expression : List.of("\\d+ms$", "x\\w++;", "^a*b", "(q|z)+\\d", "a[^ab]+$")) {
+			final var pattern = Pattern.compile(expression);
+
+			for (var round = 0; round < 200; ++round) {
+				final var builder = new StringBuilder();
+				for (var index = random.nextInt(200); index > 0; --index) {
+					builder.append("abxqz 19;ms".charAt(random.nextInt(11)));
+				}
+
+				final var line = builder.toString();
+				final var bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+
+				final var expected = pattern.matcher(line).find(0);
+				final var actual = pattern.matcher(new ByteSequence().set(bytes, 0, bytes.length)).find(0);
+
+				assertEquals(expected, actual, () -> expression + " in " + line);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import grep.Pattern.AsciiArrayClass;
+import grep.Pattern.CharClass;
+import grep.Pattern.CharPredicate;
+import grep.Pattern.CharacterRangeClass;
+
+class CharClassTest {
+
+	private static final List<CharPredicate> PREDICATES = List.of(
+		new CharPredicate.Character('x'),
+		new CharPredicate.Any(),
+		CharacterRangeClass.WORDS,
+		new CharPredicate.Not(CharacterRangeClass.DIGITS),
+		new CharPredicate.Or(array("abc€"), CharacterRangeClass.DIGITS),
+		new CharPredicate.Not(new CharPredicate.Or(array("é_"), CharacterRangeClass.WORDS)),
+		(character) -> character % 7 == 0
+	);
+
+	@Test
+	void sameAsTree() {
+		for (final var predicate : PREDICATES) {
+			final var charClass = CharClass.of(predicate);
+
+			for (var code = 0; code <= Character.MAX_VALUE; ++code) {
+				final var character = (char) code;
+
+				if (predicate.test(character) != charClass.test(character)) {
+					assertEquals(predicate.test(character), charClass.test(character), predicate + " on " + (int) character);
+				}
+			}
+		}
+	}
+
+	@Test
+	void disjointSameAsBruteForce() {
+		for (final var first : PREDICATES) {
+			for (final var second : PREDICATES) {
+				var expected = true;
+				for (var character = 0; character <= Character.MAX_VALUE && expected; ++character) {
+					expected = !(first.test((char) character) && second.test((char) character));
+				}
+
+				assertEquals(expected, CharClass.of(first).isDisjoint(CharClass.of(second)), () -> first + " and " + second);
+			}
+		}
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@CsvSource(delimiter = ';', value = {
+		"ab; ab",
+		"[a]b; ab",
+		"x[€]; x€",
+		"[b][^\\d]; b",
+	})
+	void singleCharactersAreLiterals(String expression, String prefix) {
+		assertEquals(prefix, Pattern.compile(expression).prefix.value);
+	}
+
+	@Test
+	void ranges() {
+		assertArrayEquals(new int[] { 0, 9, 20, 40 }, CharClass.union(new int[] { 0, 3, 20, 30 }, new int[] { 4, 9, 25, 40 }));
+		assertArrayEquals(new int[] { 10, 19, 41, Character.MAX_VALUE }, CharClass.complement(new int[] { 0, 9, 20, 40 }));
+		assertArrayEquals(new int[] { 48, 57 }, CharClass.of(CharacterRangeClass.DIGITS).toRanges());
+	}
+
+	private static AsciiArrayClass array(String characters) {
+		final var array = new AsciiArrayClass();
+		characters.chars().forEach((character) -> array.add((char) character));
+
+		return array;
+	}
+
+}
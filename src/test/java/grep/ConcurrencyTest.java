@@ -0,0 +1,151 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Many workers hammer the same compiled patterns, starting together so that the lazy automata are built while they
+ * race, and every answer is checked against one computed by a single thread with patterns of its own.
+ */
+class ConcurrencyTest {
+
+	private static final int WORKERS = 64;
+	private static final int LINES = 1_000;
+
+	private static final List<String> EXPRESSIONS = List.of(
+		"\\d+ms$",
+		"(ERROR|WARN) +\\w+",
+		"(a|b)+a(a|b)(a|b)(a|b)(a|b)(a|b)",
+		"(\\w)\\1",
+		"(?>a+)b",
+		"^[^ ]+@[^ ]+ é",
+		"[€é]\\d"
+	);
+
+	private static final String ALPHABET = "ab 0123456789@msERROWANé€";
+
+	@Test
+	void sharedPatterns() throws Exception {
+		final var lines = lines(new Random(17));
+
+		final var patterns = EXPRESSIONS.stream().map(Pattern::compile).toList();
+		final var expected = expected(lines);
+
+		final var start = new CountDownLatch(1);
+		final var tasks = new ArrayList<Callable<Void>>();
+
+		for (var worker = 0; worker < WORKERS; ++worker) {
+			final var offset = worker;
+
+			tasks.add(() -> {
+				start.await();
+
+				final var matchers = patterns.stream().map((pattern) -> pattern.matcher("")).toList();
+				for (var round = 0; round < LINES; ++round) {
+					final var line = (round + offset * 31) % LINES;
+
+					for (var index = 0; index < patterns.size(); ++index) {
+						final var pattern = patterns.get(index);
+						final var message = pattern + " in " + lines.get(line);
+
+						assertEquals(expected[line][index], pattern.find(lines.get(line)), message);
+						assertEquals(expected[line][index], matchers.get(index).reset(lines.get(line)).find(0), message);
+					}
+				}
+
+				return null;
+			});
+		}
+
+		run(tasks, start);
+	}
+
+	@Test
+	void sharedPatternSet() throws Exception {
+		final var lines = lines(new Random(23));
+
+		final var patterns = PatternSet.compile(EXPRESSIONS);
+		final var expected = expected(lines);
+
+		final var start = new CountDownLatch(1);
+		final var tasks = new ArrayList<Callable<Void>>();
+
+		for (var worker = 0; worker < WORKERS; ++worker) {
+			final var offset = worker;
+
+			tasks.add(() -> {
+				start.await();
+
+				final var matcher = patterns.matcher();
+				for (var round = 0; round < LINES; ++round) {
+					final var line = (round + offset * 31) % LINES;
+
+					var any = false;
+					for (final var found : expected[line]) {
+						any |= found;
+					}
+
+					/* the lines that are not ascii also go through the automata over UTF-8 bytes */
+					final var bytes = lines.get(line).getBytes(StandardCharsets.UTF_8);
+
+					assertEquals(any, matcher.reset(lines.get(line)).find(), lines.get(line));
+					assertEquals(any, matcher.findUtf8(bytes, 0, bytes.length), lines.get(line));
+				}
+
+				return null;
+			});
+		}
+
+		run(tasks, start);
+	}
+
+	private static List<String> lines(Random random) {
+		final var lines = new ArrayList<String>(LINES);
+
+		for (var index = 0; index < LINES; ++index) {
+			final var builder = new StringBuilder();
+			for (var length = random.nextInt(40); length > 0; --length) {
+				builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+
+			lines.add(builder.toString());
+		}
+
+		return lines;
+	}
+
+	/* from patterns that no other thread has seen */
+	private static boolean[][] expected(List<String> lines) {
+		final var patterns = EXPRESSIONS.stream().map(Pattern::compile).toList();
+		final var expected = new boolean[lines.size()][patterns.size()];
+
+		for (var line = 0; line < lines.size(); ++line) {
+			for (var index = 0; index < patterns.size(); ++index) {
+				expected[line][index] = patterns.get(index).matcher(lines.get(line)).find(0);
+			}
+		}
+
+		return expected;
+	}
+
+	private static void run(List<Callable<Void>> tasks, CountDownLatch start) throws Exception {
+		try (final var executor = Executors.newFixedThreadPool(WORKERS)) {
+			final var futures = tasks.stream().map(executor::submit).toList();
+			start.countDown();
+
+			for (final var future : futures) {
+				future.get();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,465 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FileSearchTest {
+
+	@TempDir
+	Path directory;
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 2, 8 })
+	void recursiveOutputIsOrderedPerFile(int jobs) throws IOException {
+		for (var index = 0; index < 40; ++index) {
+			final var content = IntStream.range(0, 500)
+				.mapToObj(line -> "line " + line)
+				.collect(Collectors.joining("\n"));
+
+			Files.createDirectories(directory.resolve("sub" + (index % 4)));
+			Files.writeString(directory.resolve("sub" + (index % 4)).resolve("file" + index), content);
+		}
+
+		final var sequential = search(1, "line 4\\d\\d");
+		final var parallel = search(jobs, "line 4\\d\\d");
+
+		assertEquals(40 * 100, sequential.lines().count());
+		assertEquals(sequential, parallel);
+	}
+
+	@Test
+	void noMatch() throws IOException {
+		Files.writeString(directory.resolve("file"), "apple\nbanana\n");
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("cherry")), true, false, 4, wrap(output));
+
+		assertFalse(search.run(List.of(directory.toString()), true));
+		assertEquals(0, output.size());
+	}
+
+	@Test
+	void directoryWithoutRecurse() throws IOException {
+		Files.writeString(directory.resolve("file"), "apple\n");
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("apple")), false, false, 4, wrap(output));
+
+		assertFalse(search.run(List.of(directory.toString()), false));
+		assertTrue(search.run(List.of(directory.resolve("file").toString()), false));
+		assertEquals("apple\n", output.toString());
+	}
+
+	@Test
+	void printPattern() throws IOException {
+		final var file = directory.resolve("log");
+		Files.writeString(file, "GET /a 12ms\nPOST /b\nGET /c timeout\n");
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("timeout", "^GET", "\\d+ms$")), false, true, 2, wrap(output));
+		search.printPattern = true;
+
+		assertTrue(search.run(List.of(file.toString()), false));
+		assertEquals("1:^GET|\\d+ms$:GET /a 12ms\n3:timeout|^GET:GET /c timeout\n", output.toString());
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void countsAndNames(int jobs) throws IOException {
+		Files.writeString(directory.resolve("a"), "apple\napricot\nbanana\n");
+		Files.writeString(directory.resolve("b"), "cherry\n");
+		Files.writeString(directory.resolve("c"), "avocado\n");
+
+		final var files = List.of("a", "b", "c").stream().map((name) -> directory.resolve(name).toString()).toList();
+		final var prefix = directory.toString() + "/";
+
+		assertEquals(prefix + "a:2\n" + prefix + "b:0\n" + prefix + "c:1\n", search(jobs, FileSearch.Mode.COUNT, Long.MAX_VALUE, "^a", files));
+		assertEquals(prefix + "a:1\n" + prefix + "b:0\n" + prefix + "c:1\n", search(jobs, FileSearch.Mode.COUNT, 1, "^a", files));
+		assertEquals(prefix + "a\n" + prefix + "c\n", search(jobs, FileSearch.Mode.FILES_WITH_MATCHES, Long.MAX_VALUE, "^a", files));
+		assertEquals(prefix + "b\n", search(jobs, FileSearch.Mode.FILES_WITHOUT_MATCH, Long.MAX_VALUE, "^a", files));
+		assertEquals("", search(jobs, FileSearch.Mode.QUIET, Long.MAX_VALUE, "^a", files));
+		assertEquals(prefix + "a:apple\n" + prefix + "c:avocado\n", search(jobs, FileSearch.Mode.LINES, 1, "^a", files));
+		assertEquals("", search(jobs, FileSearch.Mode.LINES, 0, "^a", files));
+	}
+
+	/* longer than the buffer, so that the line has to grow past the maximum of a stream */
+	@ParameterizedTest(name = "mapFiles={0}")
+	@ValueSource(booleans = { false, true })
+	void longLinesOfFilesAreWhole(boolean mapFiles) throws IOException {
+		final var line = "x" + "a".repeat(LineReader.DEFAULT_CAPACITY + 1000) + "x";
+
+		final var file = directory.resolve("long");
+		Files.writeString(file, line + "\nshort x\n");
+
+		for (final var mode : List.of(FileSearch.Mode.COUNT, FileSearch.Mode.LINES)) {
+			for (final var expression : List.of("x", "^x", "x$", "ax")) {
+				final var output = new ByteArrayOutputStream();
+
+				final var search = new FileSearch(PatternSet.compile(List.of(expression)), false, false, 1, wrap(output));
+				search.mode = mode;
+				search.mapFiles = mapFiles;
+				search.mappingThreshold = 1;
+				search.streamMaximumLineLength = 16;
+
+				search.run(List.of(file.toString()), false);
+
+				/* the short line also has an `x` at its end */
+				final var both = !expression.startsWith("^") && !expression.equals("ax");
+				final var expected = switch (mode) {
+					case COUNT -> both ? "2\n" : "1\n";
+					default -> both ? line + "\nshort x\n" : line + "\n";
+				};
+
+				assertEquals(expected, output.toString(), mode + " " + expression);
+			}
+		}
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void statistics(int jobs) throws IOException {
+		for (var index = 0; index < 20; ++index) {
+			Files.writeString(directory.resolve("file" + index), "apple\nbanana\ncherry\n");
+		}
+
+		Files.writeString(directory.resolve("large"), "apple\n".repeat(200_000));
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("an")), true, false, jobs, wrap(output));
+		search.mode = FileSearch.Mode.COUNT;
+		search.statistics = new Statistics();
+
+		assertTrue(search.run(List.of(directory.toString()), true));
+
+		final var statistics = search.statistics;
+		assertEquals(21, statistics.files);
+		assertEquals(jobs == 1 ? 0 : 20, statistics.readAheadFiles.sum());
+		assertEquals(1, statistics.mappedFiles.sum());
+		assertEquals(20 * 20 + 6 * 200_000, statistics.bytes.sum());
+		assertEquals(20 * 3 + 200_000, statistics.lines.sum());
+		assertEquals(20, statistics.selectedLines.sum());
+
+		final var printed = new ByteArrayOutputStream();
+		statistics.print(new PrintStream(printed, true, StandardCharsets.UTF_8));
+		assertTrue(printed.toString(StandardCharsets.UTF_8).startsWith("files: 21, "));
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void mappedFilesAreSearchedTheSame(int jobs) throws IOException {
+		final var file = directory.resolve("log");
+		Files.writeString(file, IntStream.range(0, 5000)
+			.mapToObj((line) -> line % 97 == 0 ? "café %d timeout after %dms".formatted(line, line % 1000) : "line " + line)
+			.collect(Collectors.joining("\n")));
+
+		for (final var expression : List.of("timeout", "café \\d+ t", "\\d+ms$", "line 4\\d{3}")) {
+			final var searches = new ArrayList<String>();
+
+			for (final var mapFiles : List.of(false, true)) {
+				final var output = new ByteArrayOutputStream();
+
+				final var search = new FileSearch(PatternSet.compile(List.of(expression)), false, true, jobs, wrap(output));
+				search.printByteOffset = true;
+				search.chunkSize = 16 * 1024;
+				search.mapFiles = mapFiles;
+				search.mappingThreshold = 1;
+
+				search.run(List.of(file.toString()), false);
+				searches.add(output.toString());
+			}
+
+			assertEquals(searches.get(0), searches.get(1), expression);
+			assertTrue(searches.get(0).length() > 0, expression);
+		}
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void indexedDirectory(int jobs) throws IOException {
+		Files.writeString(directory.resolve("a"), "apple\napricot\n");
+		Files.writeString(directory.resolve("b"), "cherry\n");
+		TrigramIndex.build(directory);
+
+		/* the index is trusted as long as the size and the modification time did not change */
+		final var modifiedTime = Files.getLastModifiedTime(directory.resolve("b"));
+		Files.writeString(directory.resolve("b"), "apples\n");
+		Files.setLastModifiedTime(directory.resolve("b"), modifiedTime);
+
+		Files.writeString(directory.resolve("c"), "apple pie\n");
+
+		final var prefix = directory.toString() + "/";
+
+		assertEquals(List.of(prefix + "a:1", prefix + "b:0", prefix + "c:1"), searchIndexed(jobs, FileSearch.Mode.COUNT, true));
+		assertEquals(List.of(prefix + "b"), searchIndexed(jobs, FileSearch.Mode.FILES_WITHOUT_MATCH, true));
+		assertEquals(List.of(prefix + TrigramIndex.FILE_NAME + ":0", prefix + "a:1", prefix + "b:1", prefix + "c:1"), searchIndexed(jobs, FileSearch.Mode.COUNT, false));
+
+		Files.writeString(directory.resolve("a"), "apple\napricot\napple\n");
+		assertEquals(List.of(prefix + "a:apple", prefix + "a:apple", prefix + "c:apple pie"), searchIndexed(jobs, FileSearch.Mode.LINES, true));
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void onlyTheIndexOfTheDirectoryIsSkipped(int jobs) throws IOException {
+		Files.writeString(directory.resolve("a"), "apple\n");
+		Files.createDirectories(directory.resolve("sub"));
+		Files.writeString(directory.resolve("sub").resolve(TrigramIndex.FILE_NAME), "apple\n");
+		TrigramIndex.build(directory);
+
+		final var prefix = directory.toString() + "/";
+
+		assertEquals(List.of(prefix + "a:1", prefix + "sub/" + TrigramIndex.FILE_NAME + ":1"), searchIndexed(jobs, FileSearch.Mode.COUNT, true));
+		assertEquals(List.of(prefix + TrigramIndex.FILE_NAME + ":0", prefix + "a:1", prefix + "sub/" + TrigramIndex.FILE_NAME + ":1"), searchIndexed(jobs, FileSearch.Mode.COUNT, false));
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 1, 4 })
+	void onlyMatching(int jobs) throws IOException {
+		final var file = directory.resolve("log");
+		Files.writeString(file, "id=1 id=22\nnone\ncafé id=333\n");
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("id=\\d+")), false, true, jobs, wrap(output));
+		search.onlyMatching = true;
+		search.printByteOffset = true;
+
+		assertTrue(search.run(List.of(file.toString()), false));
+		assertEquals("1:0:id=1\n1:5:id=22\n3:22:id=333\n", output.toString());
+	}
+
+	@Test
+	void color() throws IOException {
+		final var file = directory.resolve("log");
+		Files.writeString(file, "a café, a thé\nnone\n");
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("é")), true, true, 1, wrap(output));
+		search.color = true;
+
+		assertTrue(search.run(List.of(file.toString()), false));
+		assertEquals(
+			"\033[35m\033[K%s\033[m\033[K\033[36m\033[K:\033[m\033[K".formatted(file)
+				+ "\033[32m\033[K1\033[m\033[K\033[36m\033[K:\033[m\033[K"
+				+ "a caf\033[01;31m\033[Ké\033[m\033[K, a th\033[01;31m\033[Ké\033[m\033[K\n",
+			output.toString()
+		);
+	}
+
+	@Test
+	void chunkedByteOffsets() throws IOException {
+		final var content = IntStream.range(0, 5_000)
+			.mapToObj(line -> line % 3 == 0 ? "x hit " + line : "miss")
+			.collect(Collectors.joining("\n"));
+
+		final var file = directory.resolve("big");
+		Files.writeString(file, content);
+
+		final var outputs = new ArrayList<String>();
+		for (final var jobs : new int[] { 1, 4 }) {
+			final var output = new ByteArrayOutputStream();
+
+			final var search = new FileSearch(PatternSet.compile(List.of("hit")), false, false, jobs, wrap(output));
+			search.chunkSize = 1_000;
+			search.onlyMatching = true;
+			search.printByteOffset = true;
+			search.run(List.of(file.toString()), false);
+
+			outputs.add(output.toString());
+		}
+
+		assertEquals(outputs.get(0), outputs.get(1));
+		assertEquals(content.indexOf("hit " + 4998) + ":hit", outputs.get(0).lines().reduce((first, second) -> second).orElseThrow());
+	}
+
+	@Test
+	void quietStopsAtFirstMatch() throws Exception {
+		final var pipe = Pipe.open();
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("hit")), false, false, 1, wrap(output));
+		search.mode = FileSearch.Mode.QUIET;
+
+		/* the stream is never closed, the search returns without waiting for its end */
+		pipe.sink().write(ByteBuffer.wrap("miss\nhit\n".getBytes()));
+
+		assertTrue(search.run(pipe.source()));
+		assertEquals(0, output.size());
+	}
+
+	@Test
+	void quietStopsTheWholeRun() throws Exception {
+		Files.writeString(directory.resolve("a"), "miss\nhit\n");
+
+		/* a fifo that nobody writes to, reading it would never end */
+		final var fifo = directory.resolve("fifo");
+		assertEquals(0, new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor());
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("hit")), false, false, 2, wrap(output));
+		search.mode = FileSearch.Mode.QUIET;
+
+		try {
+			assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+				assertTrue(search.run(List.of(directory.resolve("a").toString(), fifo.toString()), false));
+			});
+		} finally {
+			/* lets the abandoned worker out of opening the fifo, opening it both ways does not wait for a reader */
+			FileChannel.open(fifo, StandardOpenOption.READ, StandardOpenOption.WRITE).close();
+		}
+
+		assertEquals(0, output.size());
+	}
+
+	@Test
+	void maximumCountStopsReading() throws Exception {
+		final var pipe = Pipe.open();
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("hit")), false, true, 1, wrap(output));
+		search.maximumCount = 2;
+
+		pipe.sink().write(ByteBuffer.wrap("hit one\nmiss\nhit two\nhit three\n".getBytes()));
+
+		assertTrue(search.run(pipe.source()));
+		assertEquals("1:hit one\n3:hit two\n", output.toString());
+	}
+
+	@Test
+	void streamIsSearchedAsItArrives() throws Exception {
+		final var pipe = Pipe.open();
+		final var sink = pipe.sink();
+
+		final var output = new ByteArrayOutputStream();
+		final var search = new FileSearch(PatternSet.compile(List.of("hit")), false, true, 1, wrap(output));
+
+		final var thread = Thread.startVirtualThread(() -> search.run(pipe.source()));
+
+		sink.write(ByteBuffer.wrap("miss\nhit one\nmiss".getBytes()));
+		awaitOutput(output, "2:hit one\n");
+
+		/* the rest of a line that was split between two writes */
+		sink.write(ByteBuffer.wrap(" again\nhit two\n".getBytes()));
+		awaitOutput(output, "2:hit one\n4:hit two\n");
+
+		sink.close();
+		thread.join();
+	}
+
+	@ParameterizedTest(name = "jobs={0}")
+	@ValueSource(ints = { 2, 8 })
+	void chunkedFileKeepsLineNumbers(int jobs) throws IOException {
+		final var content = IntStream.range(0, 20_000)
+			.mapToObj(line -> line % 7 == 0 ? "hit " + line : "miss")
+			.collect(Collectors.joining("\n"));
+
+		final var file = directory.resolve("big");
+		Files.writeString(file, content);
+
+		final var expected = search(1, 0, "hit", file);
+		final var chunked = search(jobs, 1_000, "hit", file);
+
+		assertEquals(20_000 / 7 + 1, expected.lines().count());
+		assertEquals("1:hit 0", expected.lines().findFirst().orElseThrow());
+		assertEquals("20000:hit 19999", expected.lines().reduce((first, second) -> second).orElseThrow());
+		assertEquals(expected, chunked);
+	}
+
+	@Test
+	void chunkBoundariesFollowNewlines() throws IOException {
+		final var file = directory.resolve("lines");
+		Files.writeString(file, "aaaaaaaaaa\nbb\nc\ndddddddddddddddddddd\ne");
+
+		final var boundaries = FileSearch.findChunkBoundaries(file, Files.size(file), 4);
+
+		assertArrayEquals(new long[] { 0, 11, 14, 16, 37, 38 }, boundaries);
+	}
+
+	private String search(int jobs, String expression) {
+		final var output = new ByteArrayOutputStream();
+
+		new FileSearch(PatternSet.compile(List.of(expression)), true, false, jobs, wrap(output)).run(List.of(directory.toString()), true);
+
+		return output.toString();
+	}
+
+	private String search(int jobs, long chunkSize, String expression, Path file) {
+		final var output = new ByteArrayOutputStream();
+
+		final var search = new FileSearch(PatternSet.compile(List.of(expression)), false, true, jobs, wrap(output));
+		if (chunkSize != 0) {
+			search.chunkSize = chunkSize;
+		}
+
+		search.run(List.of(file.toString()), false);
+
+		return output.toString();
+	}
+
+	private String search(int jobs, FileSearch.Mode mode, long maximumCount, String expression, List<String> files) {
+		final var output = new ByteArrayOutputStream();
+
+		final var search = new FileSearch(PatternSet.compile(List.of(expression)), true, false, jobs, wrap(output));
+		search.mode = mode;
+		search.maximumCount = maximumCount;
+
+		search.run(files, false);
+
+		return output.toString();
+	}
+
+	/* the files of a directory are not walked in any particular order */
+	private List<String> searchIndexed(int jobs, FileSearch.Mode mode, boolean useIndex) {
+		final var output = new ByteArrayOutputStream();
+
+		final var search = new FileSearch(PatternSet.compile(List.of("apple")), true, false, jobs, wrap(output));
+		search.mode = mode;
+		search.useIndex = useIndex;
+
+		search.run(List.of(directory.toString()), true);
+
+		return output.toString().lines().sorted().toList();
+	}
+
+	private static void awaitOutput(ByteArrayOutputStream output, String expected) throws InterruptedException {
+		final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while (!output.toString().equals(expected)) {
+			if (System.nanoTime() > deadline) {
+				assertEquals(expected, output.toString());
+			}
+
+			Thread.sleep(10);
+		}
+	}
+
+	/* small enough for long outputs to be flushed several times */
+	private static Output wrap(ByteArrayOutputStream output) {
+		return new Output(Channels.newChannel(output), 100, false);
+	}
+
+}
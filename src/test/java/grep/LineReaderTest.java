@@ -0,0 +1,149 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LineReaderTest {
+
+	@ParameterizedTest(name = "capacity={0}")
+	@ValueSource(ints = { 1, 3, 8, 64, LineReader.DEFAULT_CAPACITY })
+	void lines(int capacity) throws IOException {
+		final var input = "first line\nsecond\r\n\nthe last line has no newline";
+
+		assertEquals(
+			List.of("first line", "second", "", "the last line has no newline"),
+			readAll(input, capacity)
+		);
+	}
+
+	@ParameterizedTest(name = "capacity={0}")
+	@ValueSource(ints = { 1, 16 })
+	void trailingNewline(int capacity) throws IOException {
+		assertEquals(List.of("a", "b"), readAll("a\nb\n", capacity));
+		assertEquals(List.of(), readAll("", capacity));
+	}
+
+	@ParameterizedTest(name = "capacity={0}")
+	@ValueSource(ints = { 2, 32 })
+	void nonAscii(int capacity) throws IOException {
+		final var lines = reader("plain ascii line\nun café\n", capacity);
+
+		assertTrue(lines.next());
+		assertTrue(lines.isAscii());
+		assertEquals("plain ascii line", lines.text().toString());
+
+		assertTrue(lines.next());
+		assertFalse(lines.isAscii());
+		assertEquals("un café", lines.text().toString());
+
+		assertFalse(lines.next());
+	}
+
+	@Test
+	void linesLongerThanTheMaximumAreSplit() throws IOException {
+		final var lines = reader("short\n" + "x".repeat(20) + "\nend", 4);
+		lines.maximumLineLength = 8;
+
+		final var pieces = new ArrayList<String>();
+		while (lines.next()) {
+			pieces.add("%d%s:%s".formatted(lines.lineNumber(), lines.isPartial() ? "+" : "", lines.text()));
+		}
+
+		assertEquals(List.of("1:short", "2+:xxxxxxxx", "2+:xxxxxxxx", "2:xxxx", "3:end"), pieces);
+	}
+
+	@Test
+	void flushedBeforeReading() throws IOException {
+		final var flushes = new int[1];
+
+		final var lines = reader("a\nb\nc\n", 2);
+		lines.beforeRead = () -> ++flushes[0];
+
+		assertEquals(List.of("a", "b", "c"), readAll(lines));
+		assertTrue(flushes[0] >= 3);
+	}
+
+	@ParameterizedTest(name = "capacity={0}")
+	@ValueSource(ints = { 1, 5, 64 })
+	void mapping(int capacity) throws IOException {
+		final var input = "first line\nsecond\r\n\nthe last line has no newline";
+		final var lines = new LineReader(MemorySegment.ofArray(input.getBytes(StandardCharsets.UTF_8)), capacity);
+
+		assertEquals(List.of("first line", "second", "", "the last line has no newline"), readAll(lines));
+	}
+
+	@Test
+	void array() throws IOException {
+		final var bytes = "first line\nsecond\r\n\nlast".getBytes(StandardCharsets.UTF_8);
+		final var lines = new LineReader(bytes, bytes.length - 1);
+
+		assertEquals(List.of("first line", "second", "", "las"), readAll(lines));
+		assertEquals(bytes.length - 1, lines.bytesRead());
+	}
+
+	/* the lines that were already copied are still read, the others are only counted */
+	@ParameterizedTest(name = "capacity={0}")
+	@ValueSource(ints = { 1, 8, 64 })
+	void linesWithoutTheRequiredBytesAreSkipped(int capacity) throws IOException {
+		final var input = new StringBuilder();
+		for (var line = 1; line <= 1000; ++line) {
+			input.append((line == 200 || line == 900 ? "timeout %d\n" : "line %d\n").formatted(line));
+		}
+
+		final var bytes = input.append("time out").toString().getBytes(StandardCharsets.UTF_8);
+
+		final var all = numberedLines(new LineReader(MemorySegment.ofArray(bytes), capacity));
+		assertEquals(1001, all.size());
+
+		final var lines = new LineReader(MemorySegment.ofArray(bytes), capacity);
+		lines.required = "timeout".getBytes(StandardCharsets.UTF_8);
+
+		final var read = numberedLines(lines);
+		assertTrue(all.containsAll(read));
+		assertTrue(read.containsAll(List.of(all.get(199), all.get(899), all.get(1000))));
+		assertTrue(read.size() < 100, () -> read.size() + " lines read");
+	}
+
+	private static List<String> numberedLines(LineReader lines) throws IOException {
+		final var result = new ArrayList<String>();
+		while (lines.next()) {
+			result.add("%d:%d:%s".formatted(lines.lineNumber(), lines.offset(), lines.text()));
+		}
+
+		return result;
+	}
+
+	private static List<String> readAll(String input, int capacity) throws IOException {
+		return readAll(reader(input, capacity));
+	}
+
+	private static List<String> readAll(LineReader lines) throws IOException {
+		final var result = new ArrayList<String>();
+		while (lines.next()) {
+			result.add(lines.text().toString());
+		}
+
+		return result;
+	}
+
+	private static LineReader reader(String input, int capacity) {
+		final var bytes = input.getBytes(StandardCharsets.UTF_8);
+		final var channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+
+		return new LineReader(channel, capacity);
+	}
+
+}
@@ -0,0 +1,79 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MainTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void emptyPatternMatchesEveryLine() throws Exception {
+		final var expressions = readPatterns("-E", "-e", "");
+		assertEquals(List.of(""), expressions);
+
+		assertEquals("3\n", count(expressions, "apple\n\nbanana\n"));
+	}
+
+	@Test
+	void newlineSeparatesPatterns() throws Exception {
+		final var expressions = readPatterns("-E", "-e", "abc\n", "-e", "x\ny");
+		assertEquals(List.of("abc", "", "x", "y"), expressions);
+
+		/* the empty pattern after the trailing newline matches the lines without `abc` too */
+		assertEquals("3\n", count(expressions, "abc\ndef\n\n"));
+		assertEquals("1\n", count(readPatterns("-E", "-e", "abc\ndef"), "abc\nxyz\n"));
+	}
+
+	@Test
+	void patternsFromFileAndOption() throws Exception {
+		final var file = directory.resolve("patterns");
+		Files.writeString(file, "one\n\ntwo\n");
+
+		assertEquals(List.of("zero", "one", "", "two"), readPatterns("-E", "-e", "zero", "-f", file.toString()));
+	}
+
+	private static List<String> readPatterns(String... args) throws ParseException, IOException {
+		final var regexpOption = new Option("e", "regexp", true, null);
+		final var fileOption = new Option("f", "file", true, null);
+
+		final var options = new Options();
+		options.addOption(new Option("E", null));
+		options.addOption(regexpOption);
+		options.addOption(fileOption);
+
+		final var expressions = new ArrayList<String>();
+		Main.readPatterns(new DefaultParser().parse(options, args), regexpOption, fileOption, expressions);
+
+		return expressions;
+	}
+
+	private String count(List<String> expressions, String content) throws IOException {
+		final var file = directory.resolve("input");
+		Files.writeString(file, content);
+
+		final var output = new ByteArrayOutputStream();
+
+		final var search = new FileSearch(PatternSet.compile(expressions), false, false, 1, new Output(Channels.newChannel(output), 100, false));
+		search.mode = FileSearch.Mode.COUNT;
+		search.run(List.of(file.toString()), false);
+
+		return output.toString();
+	}
+
+}
@@ -0,0 +1,61 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class OutputTest {
+
+	@ParameterizedTest(name = "{0}")
+	@ValueSource(longs = { 0, 7, 42, 1_000_000, -15, Long.MAX_VALUE, Long.MIN_VALUE })
+	void numbers(long value) throws IOException {
+		final var bytes = new ByteArrayOutputStream();
+		final var output = new Output(Channels.newChannel(bytes), 8, false);
+
+		output.writeNumber(value);
+		output.flush();
+
+		assertEquals(Long.toString(value), bytes.toString());
+	}
+
+	@Test
+	void flushedWhenFull() throws IOException {
+		final var bytes = new ByteArrayOutputStream();
+		final var output = new Output(Channels.newChannel(bytes), 8, false);
+
+		output.write("abcde".getBytes());
+		assertEquals("", bytes.toString());
+
+		output.write("fghij".getBytes());
+		assertEquals("abcde", bytes.toString());
+
+		/* larger than the buffer */
+		output.write("0123456789".getBytes());
+		assertEquals("abcdefghij0123456789", bytes.toString());
+
+		output.endLine();
+		assertEquals("abcdefghij0123456789", bytes.toString());
+
+		output.flush();
+		assertEquals("abcdefghij0123456789\n", bytes.toString());
+	}
+
+	@Test
+	void lineBuffered() throws IOException {
+		final var bytes = new ByteArrayOutputStream();
+		final var output = new Output(Channels.newChannel(bytes), 1024, true);
+
+		output.write("first".getBytes());
+		assertEquals("", bytes.toString());
+
+		output.endLine();
+		assertEquals("first\n", bytes.toString());
+	}
+
+}
@@ -0,0 +1,109 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class PatternCacheTest {
+
+	@Test
+	void hitsAndMisses() {
+		final var cache = new PatternCache(8);
+
+		final var pattern = cache.compile("a+b");
+		assertSame(pattern, cache.compile("a+b"));
+		assertNotSame(pattern, cache.compile("a+c"));
+
+		final var statistics = cache.statistics();
+		assertEquals(1, statistics.hitCount());
+		assertEquals(2, statistics.missCount());
+		assertEquals(1 / 3.0, statistics.hitRate());
+	}
+
+	@Test
+	void leastRecentlyUsedIsEvicted() {
+		final var cache = new PatternCache(3);
+
+		cache.compile("a");
+		cache.compile("b");
+		cache.compile("c");
+		cache.compile("a");
+		cache.compile("d");
+
+		assertEquals(List.of("c", "a", "d"), cache.expressions());
+		assertEquals(1, cache.statistics().evictionCount());
+	}
+
+	@Test
+	void expiresAfterAccess() {
+		final var now = new AtomicLong();
+		final var cache = new PatternCache(8, Duration.ofSeconds(10), now::get);
+
+		final var pattern = cache.compile("a");
+		cache.compile("b");
+
+		now.set(Duration.ofSeconds(6).toNanos());
+		assertSame(pattern, cache.compile("a"));
+
+		now.set(Duration.ofSeconds(12).toNanos());
+		cache.compile("c");
+		assertEquals(List.of("a", "c"), cache.expressions());
+
+		now.set(Duration.ofSeconds(30).toNanos());
+		assertNotSame(pattern, cache.compile("a"));
+		assertEquals(List.of("a"), cache.expressions());
+	}
+
+	@Test
+	void invalidExpressionsAreNotCached() {
+		final var cache = new PatternCache(8);
+
+		assertThrows(IllegalArgumentException.class, () -> cache.compile("(?x)"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void sharedBetweenThreads() throws Exception {
+		final var cache = new PatternCache(16);
+
+		final var tasks = new ArrayList<Callable<Boolean>>();
+		for (var task = 0; task < 8; ++task) {
+			tasks.add(() -> {
+				for (var round = 0; round < 1_000; ++round) {
+					final var matcher = cache.compile("id=%d\\d*;".formatted(round % 32)).matcher("");
+
+					if (!matcher.reset("user id=%d;".formatted(round % 32)).find(0)) {
+						return false;
+					}
+				}
+
+				return true;
+			});
+		}
+
+		try (final var executor = Executors.newFixedThreadPool(8)) {
+			for (final var future : executor.invokeAll(tasks)) {
+				assertEquals(true, future.get());
+			}
+		}
+
+		assertEquals(16, cache.size());
+		assertEquals(8_000, cache.statistics().hitCount() + cache.statistics().missCount());
+	}
+
+	@Test
+	void compileCached() {
+		assertSame(Pattern.compileCached("\\d+ms$"), Pattern.compileCached("\\d+ms$"));
+	}
+
+}
@@ -0,0 +1,183 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class PatternSetTest {
+
+	private static final List<String> EXPRESSIONS = List.of(
+		"error",
+		"warn",
+		"\\d+ms$",
+		"(a)\\1",
+		"timeout",
+		"^GET "
+	);
+
+	@ParameterizedTest(name = "{0} -> {1}")
+	@CsvSource(delimiter = ';', value = {
+		"warn: timeout after 120ms; 1 2 4",
+		"GET /index took 5ms; 2 5",
+		"an error, then aa; 0 3",
+		"nothing to see; ''",
+		"POST /GET 3 ms; ''",
+	})
+	void hits(String line, String expected) {
+		final var patterns = PatternSet.compile(EXPRESSIONS);
+
+		assertNotNull(patterns.literals);
+		assertNotNull(patterns.automaton);
+		assertEquals(1, patterns.fallbacks.length);
+
+		final var matcher = patterns.matcher().reset(line);
+
+		assertEquals(!expected.isEmpty(), matcher.find());
+		assertEquals(!expected.isEmpty(), matcher.findAll());
+		assertEquals(expected, hits(matcher));
+	}
+
+	@Test
+	void singleExpressionIsUsedAsIs() {
+		final var patterns = PatternSet.compile(List.of("a+b"));
+		assertNotNull(patterns.single);
+		assertNull(patterns.literals);
+
+		final var matcher = patterns.matcher().reset("xaab");
+		assertTrue(matcher.findAll());
+		assertEquals("0", hits(matcher));
+		assertEquals("a+b", matcher.hitExpressions());
+	}
+
+	@Test
+	void overlappingKeywords() {
+		final var patterns = PatternSet.compile(List.of("he", "she", "his", "hers", "s"));
+
+		final var matcher = patterns.matcher().reset("ushers");
+		assertTrue(matcher.findAll());
+		assertEquals("0 1 3 4", hits(matcher));
+		assertEquals("he|she|hers|s", matcher.hitExpressions());
+
+		assertFalse(matcher.reset("hi").findAll());
+		assertEquals(0, matcher.hitCount());
+	}
+
+	@Test
+	void emptyExpressionMatchesEverything() {
+		final var matcher = PatternSet.compile(List.of("foo", "")).matcher();
+
+		assertTrue(matcher.reset("").findAll());
+		assertEquals("1", hits(matcher));
+
+		assertTrue(matcher.reset("a foo").findAll());
+		assertEquals("0 1", hits(matcher));
+	}
+
+	@Test
+	void manyKeywords() {
+		final var random = new Random(42);
+
+		final var keywords = new ArrayList<String>();
+		for (var index = 0; index < 20_000; ++index) {
+			keywords.add(randomString(random, 4 + random.nextInt(8)));
+		}
+
+		final var patterns = PatternSet.compile(keywords);
+		final var matcher = patterns.matcher();
+
+		for (var round = 0; round < 200; ++round) {
+			final var line = new StringBuilder(randomString(random, 200));
+
+			/* make sure that some of the lines contain a keyword */
+			if (round % 2 == 0) {
+				line.insert(random.nextInt(line.length()), keywords.get(random.nextInt(keywords.size())));
+			}
+
+			final var expected = IntStream.range(0, keywords.size())
+				.filter((index) -> line.indexOf(keywords.get(index)) != -1)
+				.toArray();
+
+			matcher.reset(line);
+			assertEquals(expected.length != 0, matcher.find());
+			assertEquals(expected.length != 0, matcher.findAll());
+
+			final var actual = IntStream.range(0, matcher.hitCount()).map(matcher::hit).toArray();
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	void manyExpressions() {
+		final var expressions = IntStream.range(0, 500)
+			.mapToObj((index) -> "id=%d\\d*;".formatted(index))
+			.toList();
+
+		final var patterns = PatternSet.compile(expressions);
+		assertNotNull(patterns.automaton);
+		assertEquals(0, patterns.fallbacks.length);
+
+		final var matcher = patterns.matcher().reset("user id=4213; id=9;");
+		assertTrue(matcher.findAll());
+		assertEquals("4 9 42 421", hits(matcher));
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@CsvSource(delimiter = ';', value = {
+		"foo bar foo; 0-3 5-11",
+		"xfoo; 0-1 1-4",
+		"abcd; 0-4",
+		"nothing; ''",
+	})
+	void matchesOfEveryPattern(String line, String expected) {
+		final var matcher = PatternSet.compile(List.of("foo", "oo.b", "^x", "ab", "a.+")).matcher();
+
+		final var spans = new ArrayList<String>();
+		matcher.reset(line);
+		while (matcher.nextMatch()) {
+			spans.add(matcher.start() + "-" + matcher.end());
+		}
+
+		assertEquals(expected, String.join(" ", spans));
+
+		/* and again once reset, to the same line */
+		assertTrue(matcher.reset(line).find() == !spans.isEmpty());
+		assertEquals(!spans.isEmpty(), matcher.nextMatch());
+	}
+
+	private static String hits(SetMatcher matcher) {
+		final var builder = new StringBuilder();
+
+		for (var index = 0; index < matcher.hitCount(); ++index) {
+			if (index != 0) {
+				builder.append(' ');
+			}
+
+			builder.append(matcher.hit(index));
+		}
+
+		return builder.toString();
+	}
+
+	private static String randomString(Random random, int length) {
+		final var builder = new StringBuilder(length);
+
+		for (var index = 0; index < length; ++index) {
+			builder.append((char) ('a' + random.nextInt(6)));
+		}
+
+		return builder.toString();
+	}
+
+}
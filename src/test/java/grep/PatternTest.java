@@ -1,9 +1,21 @@
 package grep;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.jupiter.api.ClassOrderer;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.MethodOrderer;
@@ -382,11 +394,627 @@ class PatternTest {
 
 	}
 
+	@Nested
+	@Order(4)
+	@DisplayName("Automaton")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Automaton {
+
+		@Order(10)
+		@Test
+		void onlyWithoutBackReferences() {
+			assertNotNull(Pattern.compile("(a|b)+c").automaton);
+			assertNull(Pattern.compile("(a|b)+\\1").automaton);
+		}
+
+		@Order(20)
+		@DisplayName("Catastrophic patterns")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"(a|aa)+$, aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaab, false",
+			"(x+x+)+y, xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx, false",
+			"(\\w+\\w+)+!, aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa, false",
+		})
+		void catastrophicPatterns(String regex, String input, boolean expected) {
+			assertTimeoutPreemptively(Duration.ofSeconds(1), () -> testWithPatten(regex, input, expected));
+		}
+
+		@Order(30)
+		@DisplayName("Anchors")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"^$, '', true",
+			"^$, a, false",
+			"a$|^b, xa, true",
+			"a$|^b, xb, false",
+			"a$|^b, bx, true",
+			"(a|$)b, b, false",
+		})
+		void anchors(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+	}
+
+	@Nested
+	@Order(5)
+	@DisplayName("Literals")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Literals {
+
+		@Order(10)
+		@DisplayName("Extraction")
+		@ParameterizedTest(name = "/{0}/ has prefix={1} required={2} suffix={3}")
+		@CsvSource({
+			"ERROR\\d+, ERROR, , ",
+			"\\d+ apples, , ' apples', ",
+			"(ab)cd\\d, abcd, , ",
+			"a\\dlong$, a, long, long",
+			"^log, , log, ",
+			"cat|dog, , , ",
+			"a(b|c)d, a, , ",
+		})
+		void extraction(String regex, String prefix, String required, String suffix) {
+			final var pattern = Pattern.compile(regex);
+
+			assertEquals(prefix, valueOf(pattern.prefix));
+			assertEquals(required, valueOf(pattern.required));
+			assertEquals(suffix, valueOf(pattern.suffix));
+		}
+
+		@Order(20)
+		@DisplayName("Search")
+		@ParameterizedTest(name = "\"{1}\" contains \"{0}\" at {2}")
+		@CsvSource({
+			"abc, xxabcxx, 2",
+			"abc, xxabxabcx, 5",
+			"abc, abab, -1",
+			"a, bbba, 3",
+			"aba, ababa, 0",
+		})
+		void search(String literal, String input, int expected) {
+			final var value = new Literal(literal);
+
+			assertEquals(expected, value.indexOf(input, 0, input.length()));
+			assertEquals(expected, value.indexOf(new StringBuilder(input), 0, input.length()));
+		}
+
+		@Order(30)
+		@DisplayName("Prefiltered matching")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"ERROR\\d+, [main] ERROR ERROR42, true",
+			"ERROR\\d+, [main] ERROR, false",
+			"\\d+ apples, 3 apple, false",
+			"\\d+ apples, 3 apples, true",
+			"\\w+_log$, access_log, true",
+			"\\w+_log$, access_log_1, false",
+		})
+		void prefilteredMatching(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+		private static String valueOf(Literal literal) {
+			return literal == null ? null : literal.value;
+		}
+
+	}
+
+	@Nested
+	@Order(6)
+	@DisplayName("Reuse")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Reuse {
+
+		@Order(10)
+		@Test
+		void resetAcrossInputs() {
+			final var pattern = Pattern.compile("(\\w+) and \\1");
+			final var matcher = pattern.matcher("");
+
+			assertTrue(matcher.reset("cat and cat").find(0));
+			assertEquals("cat", matcher.group(1));
+
+			assertFalse(matcher.reset("dog and cat").find(0));
+
+			assertTrue(matcher.reset(new StringBuilder("a and a")).find(0));
+			assertEquals("a and a", matcher.group());
+		}
+
+		@Order(20)
+		@Test
+		void region() {
+			final var pattern = Pattern.compile("^\\d+$");
+			final var matcher = pattern.matcher("");
+			final var text = "abc 123 def";
+
+			assertFalse(matcher.reset(text).find(0));
+			assertTrue(matcher.reset(text, 4, 7).find(4));
+			assertEquals("123", matcher.group());
+			assertFalse(matcher.reset(text, 3, 7).find(3));
+		}
+
+		@Order(30)
+		@Test
+		void byteSequence() {
+			final var pattern = Pattern.compile("ERROR\\d+");
+			final var matcher = pattern.matcher("");
+			final var sequence = new ByteSequence();
+			final var bytes = "INFO ok\nERROR42 failed\n".getBytes();
+
+			assertFalse(matcher.reset(sequence.set(bytes, 0, 7)).find(0));
+			assertTrue(matcher.reset(sequence.set(bytes, 8, 23)).find(0));
+			assertEquals("ERROR42", matcher.group());
+		}
+
+		@Order(40)
+		@ParameterizedTest(name = "{0} in {1}")
+		@CsvSource(delimiter = ';', value = {
+			"a|ab; ab; true; true",
+			"a|ab; xab; true; false",
+			"\\d+; 123; true; true",
+			"\\d+; 12a; true; false",
+			"(\\w+) \\1; go go; true; true",
+			"(\\w+) \\1; go go!; true; false",
+			"(?>a+)ab; aaab; false; false",
+			"^$; ''; true; true",
+		})
+		void withoutMatcher(String regex, String input, boolean found, boolean matches) {
+			final var pattern = Pattern.compile(regex);
+
+			assertEquals(found, pattern.find(input));
+			assertEquals(matches, pattern.matches(input));
+			assertEquals(matches, pattern.matcher(input).matches());
+		}
+
+		@Order(50)
+		@ParameterizedTest(name = "{0} in {1}")
+		@CsvSource(delimiter = ';', value = {
+			"foo; foo bar foo; 0-3 8-11",
+			"\\d+; a1b22c333; 1-2 3-5 6-9",
+			"a*; baa; 0-0 1-3 3-3",
+			"^\\w; ab cd; 0-1",
+			"x|; ax; 0-0 1-2 2-2",
+			"z; abc; ''",
+		})
+		void iteration(String regex, String input, String expected) {
+			final var matcher = Pattern.compile(regex).matcher(input);
+
+			final var spans = new ArrayList<String>();
+			while (matcher.find()) {
+				spans.add(matcher.start() + "-" + matcher.end());
+			}
+
+			assertEquals(expected, String.join(" ", spans));
+			assertFalse(matcher.find());
+		}
+
+		@Order(60)
+		@Test
+		void groupBounds() {
+			final var matcher = Pattern.compile("(\\w+)=(\\d+)?").matcher("id=42 name=");
+
+			assertThrows(IllegalStateException.class, matcher::start);
+
+			assertTrue(matcher.find());
+			assertEquals(0, matcher.start());
+			assertEquals(5, matcher.end());
+			assertEquals(3, matcher.start(2));
+			assertEquals(5, matcher.end(2));
+
+			assertTrue(matcher.find());
+			assertEquals(6, matcher.start(1));
+			assertEquals(10, matcher.end(1));
+			assertEquals(-1, matcher.start(2));
+
+			assertThrows(IndexOutOfBoundsException.class, () -> matcher.start(3));
+		}
+
+	}
+
+	@Nested
+	@Order(7)
+	@DisplayName("Backtracker")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Backtracking {
+
+		@Order(10)
+		@Test
+		void deepRepetitionDoesNotOverflow() {
+			final var input = "ab".repeat(100_000) + "c";
+
+			final var matcher = Pattern.compile("^(a|b)*c$").matcher(input);
+			assertTrue(matcher.find(0));
+			assertEquals("b", matcher.group(1));
+
+			final var backReference = Pattern.compile("(a)(\\w*)\\1c").matcher(input.replace("ab", "aa"));
+			assertTrue(backReference.find(0));
+			assertEquals(input.length(), backReference.group().length());
+		}
+
+		@Order(20)
+		@DisplayName("Empty iterations")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"(a*)*b, aaab, true",
+			"(a?)+c, c, true",
+			"(a*|b)+c, abbac, true",
+			"^(\\d*)*$, 123x, false",
+		})
+		void emptyIterations(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+		@Order(30)
+		@Test
+		void emptyIterationEndsTheRepetition() {
+			final var matcher = Pattern.compile("((a*|.)+)").matcher("aab1bb");
+
+			assertTrue(matcher.find(0));
+			assertEquals("aa", matcher.group());
+		}
+
+		@Order(40)
+		@Test
+		void backtrackIntoAlternation() {
+			final var matcher = Pattern.compile("(a|ab)+c").matcher("ababc");
+
+			assertTrue(matcher.find(0));
+			assertEquals("ababc", matcher.group());
+			assertEquals("ab", matcher.group(1));
+		}
+
+		@Order(50)
+		@DisplayName("Empty alternatives")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"'', abc, true",
+			"x|, abc, true",
+			"^(|b)c$, c, true",
+			"^(|b)c$, bc, true",
+			"^(a||b)$, '', true",
+		})
+		void emptyAlternatives(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+		@Order(55)
+		@ParameterizedTest(name = "/{0}/")
+		@CsvSource(delimiter = ';', value = {
+			"a\\1",
+			"(a)\\2",
+			"\\1(a)",
+		})
+		void backReferenceToMissingGroup(String regex) {
+			assertThrows(IllegalArgumentException.class, () -> Pattern.compile(regex));
+		}
+
+		@Order(60)
+		@Test
+		void recognizerOnlySavesReferencedGroups() {
+			final var saves = new ArrayList<Integer>();
+
+			final var recognizer = Pattern.compile("(a)(b+)(c)*\\2").recognizer;
+			for (var pc = 0; pc < recognizer.size(); ++pc) {
+				if (recognizer.opcodes[pc] == Program.SAVE) {
+					saves.add(recognizer.operands[pc]);
+				}
+			}
+
+			/* only the group that is referenced, the bounds of the match are not needed either */
+			assertEquals(List.of(4, 5), saves);
+			assertTrue(Pattern.compile("(a)(b+)(c)*\\2").matcher("xabbcbb").recognize());
+			assertFalse(Pattern.compile("(a)(b+)(c)*\\2").matcher("xabcc").recognize());
+		}
+
+	}
+
+	@Nested
+	@Order(8)
+	@DisplayName("Possessive")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Possessive {
+
+		@Order(10)
+		@DisplayName("Explicit")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"a*+a, aaaa, false",
+			"a++b, aaab, true",
+			"'\\d{1,3}+\\d', 1234, true",
+			"'\\d{1,3}+\\d', 123, false",
+			"(?>a|ab)c, abc, false",
+			"(?>ab|a)c, abc, true",
+			"(?>a+)b, aab, true",
+			"^(?>\\w+)_, a_b, false",
+			"(?>x|(y))+\\1, xyy, true",
+		})
+		void explicit(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+		@Order(20)
+		@Test
+		void atomicGroupsAreNotCompiledToAnAutomaton() {
+			assertNull(Pattern.compile("(?>a+)b").automaton);
+			assertNull(Pattern.compile("a*+b").automaton);
+		}
+
+		@Order(30)
+		@Test
+		void capturesAreRestoredWhenBacktrackingPastAnAtomicGroup() {
+			final var matcher = Pattern.compile("(?>(a+))(b)|(a)ac").matcher("aac");
+
+			assertTrue(matcher.find(0));
+			assertEquals("aac", matcher.group());
+			assertNull(matcher.group(1));
+			assertEquals("a", matcher.group(3));
+		}
+
+		@Order(40)
+		@DisplayName("Disjoint successors")
+		@ParameterizedTest(name = TEST_NAME)
+		@CsvSource({
+			"\\d+:, 12:30, true",
+			"[^ @]+@, user@host, true",
+			"\\w+\\d, abc1, true",
+			"a*(b|a), aaa, true",
+			"a+$, baaa, true",
+			"^a*^b, b, true",
+		})
+		void disjointSuccessors(String regex, String input, boolean expected) {
+			testWithPatten(regex, input, expected);
+		}
+
+		@Order(50)
+		@Test
+		void disjointSuccessorsAreRewrittenIntoRuns() {
+			assertTrue(Pattern.compile("\\d+:").program.toString().contains("run"));
+			assertTrue(Pattern.compile("(\\w+) \\d+$").program.toString().contains("run"));
+
+			assertFalse(Pattern.compile("\\w+\\d").program.toString().contains("run"));
+			assertFalse(Pattern.compile("a*(b|a)").program.toString().contains("run"));
+			assertFalse(Pattern.compile("a*(a)\\1").program.toString().contains("run"));
+
+			/* the language is unchanged, so the automaton is still used */
+			assertNotNull(Pattern.compile("\\d+:").automaton);
+		}
+
+		@Order(60)
+		@Test
+		void noCatastrophicBacktracking() {
+			final var input = "1".repeat(50_000) + "x";
+
+			assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+				assertFalse(Pattern.compile("(?>\\d+)+:").matcher(input).find(0));
+				assertFalse(Pattern.compile("^\\d++:").matcher(input).find(0));
+			});
+		}
+
+	}
+
+	@Nested
+	@Order(9)
+	@DisplayName("Limits")
+	@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+	class Limits {
+
+		/* the back-reference keeps the splits from being remembered, so every split of the `a`s is tried */
+		private static final String CATASTROPHIC = "(\\w+\\w+)+\\1!";
+		private static final String ALMOST = "a".repeat(40) + " bbbb!";
+
+		@Order(10)
+		@Test
+		void stepLimit() {
+			final var matcher = Pattern.compile(CATASTROPHIC).matcher(ALMOST).limit(100_000, null);
+
+			final var exception = assertThrows(MatchTimeoutException.class, () -> matcher.find());
+			assertEquals(100_000, exception.steps());
+
+			/* the same matcher can still be used for a line that does not need as many steps */
+			matcher.reset("bbbb!");
+			assertTrue(matcher.find());
+			assertEquals("bbbb!", matcher.group());
+		}
+
+		@Order(20)
+		@Test
+		void timeout() {
+			final var matcher = Pattern.compile(CATASTROPHIC).matcher(ALMOST).limit(Backtracker.UNLIMITED, Duration.ofMillis(50));
+
+			assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+				assertThrows(MatchTimeoutException.class, () -> matcher.find());
+			});
+		}
+
+		@Order(30)
+		@Test
+		void recognizingDoesNotNeedTheBacktracker() {
+			final var matcher = Pattern.compile("(\\w+\\w+)+!").matcher(ALMOST).limit(0, Duration.ZERO);
+
+			assertTrue(matcher.recognize());
+			assertThrows(MatchTimeoutException.class, () -> matcher.find());
+
+			/* without an automaton, recognizing is limited too */
+			final var backReference = Pattern.compile("(a|aa)+\\1!").matcher(ALMOST).limit(1_000, null);
+			assertThrows(MatchTimeoutException.class, () -> backReference.recognize());
+		}
+
+		@Order(40)
+		@Test
+		void generousLimitsDoNotChangeTheResult() {
+			final var matcher = Pattern.compile("(a|ab)+c").matcher("ababc").limit(1_000, Duration.ofSeconds(10));
+
+			assertTrue(matcher.find(0));
+			assertEquals("ababc", matcher.group());
+			assertFalse(matcher.reset("abab").matches());
+			assertThrows(IllegalArgumentException.class, () -> matcher.limit(-1, null));
+		}
+
+		@Order(50)
+		@Test
+		void rememberedSplitsKeepTheSearchPolynomial() {
+			final var input = "a".repeat(1_000) + " bb!";
+
+			final var matcher = Pattern.compile("(\\w+\\w+)+!").matcher(input).limit(50_000_000, null);
+			assertTrue(matcher.find());
+			assertEquals("bb!", matcher.group());
+
+			/* the splits before the back-reference are still remembered */
+			final var backReference = Pattern.compile("(\\w)\\1(\\w+\\w+)+!").matcher("xx" + input).limit(50_000_000, null);
+			assertFalse(backReference.find());
+		}
+
+		@Order(55)
+		@Test
+		void analysisIsSharedByTheBacktrackers() {
+			final var pattern = Pattern.compile("(\\w+\\w+)+!");
+
+			new Backtracker(pattern.program);
+			final var analysis = pattern.program.analysis();
+
+			pattern.matcher("aa!").find();
+			assertSame(analysis, pattern.program.analysis());
+			assertEquals(pattern.program.size(), analysis.splitIds().length);
+		}
+
+		@Order(60)
+		@Test
+		void rememberedSplitsFindTheSameMatches() {
+			final var random = new Random(42);
+
+			for (var round = 0; round < 2_000; ++round) {
+				final var expression = randomExpression(random, 2);
+				final var pattern = Pattern.compile(expression);
+
+				final var input = new StringBuilder();
+				for (var index = random.nextInt(10); index > 0; --index) {
+					input.append("abc".charAt(random.nextInt(3)));
+				}
+
+				final var memoized = new Backtracker(pattern.program);
+				final var naive = new Backtracker(pattern.program);
+				naive.memoize = false;
+
+				/* some of the expressions are exponential without the table, they are skipped once it shows */
+				naive.stepLimit = 1_000_000;
+
+				try {
+					for (var from = 0; from <= input.length(); ++from) {
+						final var message = "/%s/ on \"%s\" from %d".formatted(expression, input, from);
+
+						assertEquals(naive.search(input, 0, from, input.length(), null), memoized.search(input, 0, from, input.length(), null), message);
+						assertArrayEquals(naive.slots, memoized.slots, message);
+
+						assertEquals(naive.matches(input, from, input.length()), memoized.matches(input, from, input.length()), message);
+						assertArrayEquals(naive.slots, memoized.slots, message);
+					}
+				} catch (MatchTimeoutException exception) {}
+			}
+		}
+
+		@Order(64)
+		@Test
+		void automatonLocatesTheSameMatches() {
+			final var random = new Random(7);
+
+			for (var round = 0; round < 2_000; ++round) {
+				final var expression = randomExpression(random, 2).replace("(?>", "(").replace("*+", "*") + (random.nextInt(4) == 0 ? "$" : "");
+				final var pattern = Pattern.compile((random.nextInt(4) == 0 ? "^" : "") + expression);
+
+				final var input = new StringBuilder();
+				for (var index = random.nextInt(12); index > 0; --index) {
+					input.append("abc".charAt(random.nextInt(3)));
+				}
+
+				final var backtracker = new Backtracker(pattern.program);
+				final var matcher = pattern.matcher(input);
+
+				for (var from = 0; from <= input.length(); ++from) {
+					final var message = "/%s/ on \"%s\" from %d".formatted(pattern.expression, input, from);
+
+					final var expected = backtracker.search(input, 0, from, input.length(), null);
+					assertEquals(expected, matcher.find(from), message);
+
+					if (expected) {
+						assertArrayEquals(Arrays.copyOf(backtracker.slots, (pattern.groupCount + 1) * 2), Arrays.copyOf(matcher.backtracker.slots, (pattern.groupCount + 1) * 2), message);
+					}
+				}
+			}
+		}
+
+		@Order(65)
+		@Test
+		void locatingAMatchIsLinear() {
+			final var input = "x".repeat(40) + "z" + " ".repeat(10_000) + "xxy";
+
+			final var matcher = Pattern.compile("(x+x+)+y").matcher(input).limit(10_000, null);
+			assertTrue(matcher.find());
+			assertEquals(input.length() - 3, matcher.start());
+			assertEquals("xxy", matcher.group());
+			assertFalse(matcher.find());
+		}
+
+		@Order(70)
+		@DisplayName("Risks")
+		@ParameterizedTest(name = "/{0}/")
+		@CsvSource(delimiter = ';', value = {
+			"(\\w+\\w+)+!; `(\\w+\\w+)+`: nested quantifier `\\w+` inside `+`",
+			"^(a|ab)*c$; `(a|ab)*`: alternatives `a|ab` can start with the same character inside `*`",
+			"(x+x+)+y; `(x+x+)+`: nested quantifier `x+` inside `+`",
+			"(.*,)*; `(.*,)*`: nested quantifier `.*` inside `*`",
+			"(a+b)+; ''",
+			"(a|b)*c; ''",
+			"\\d+:\\d+; ''",
+			"(?>\\w+)+!; ''",
+			"(\\w+)++!; ''",
+			"(\\w+){2}; ''",
+		})
+		void risks(String regex, String expected) {
+			assertEquals(expected, String.join("\n", Pattern.compile(regex).risks()));
+		}
+
+	}
+
+	private static String randomExpression(Random random, int depth) {
+		final var builder = new StringBuilder();
+
+		for (var count = 1 + random.nextInt(3); count > 0; --count) {
+			final var atom = switch (depth == 0 ? random.nextInt(3) : random.nextInt(6)) {
+				case 0 -> String.valueOf("abc".charAt(random.nextInt(3)));
+				case 1 -> ".";
+				case 2 -> "[ab]";
+				case 3 -> "(" + randomExpression(random, depth - 1) + ")";
+				case 4 -> "(" + randomExpression(random, depth - 1) + "|" + randomExpression(random, depth - 1) + ")";
+				default -> "(?>" + randomExpression(random, depth - 1) + ")";
+			};
+
+			builder.append(atom);
+			builder.append(switch (random.nextInt(8)) {
+				case 0 -> "*";
+				case 1 -> "+";
+				case 2 -> "?";
+				case 3 -> "{1,2}";
+				case 4 -> "*+";
+				default -> "";
+			});
+		}
+
+		return builder.toString();
+	}
+
 	private void testWithPatten(String regex, String input, boolean expected) {
 		final var pattern = Pattern.compile(regex);
 		final var matcher = pattern.matcher(input);
 
 		assertEquals(expected, matcher.find(0));
+
+		/* the program that does not save the groups finds the same lines, that only match when there is an automaton */
+		if (pattern.automaton == null || expected) {
+			assertEquals(expected, new Backtracker(pattern.recognizer).search(input, 0, 0, input.length(), null));
+		}
+
+		assertEquals(expected, pattern.find(input));
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TrigramIndexTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void candidates() throws IOException {
+		Files.writeString(directory.resolve("a"), "connection timeout\n");
+		Files.writeString(directory.resolve("b"), "time\nout\n");
+		Files.createDirectories(directory.resolve("sub"));
+		Files.writeString(directory.resolve("sub/c"), "error: timeout\n");
+
+		assertEquals(new TrigramIndex.Summary(3, 0, 22, 0), TrigramIndex.build(directory));
+
+		final var index = TrigramIndex.open(directory);
+		assertEquals(List.of("a", "b", "sub/c"), index.paths);
+
+		assertEquals(bits(0, 2), candidates(index, "timeout"));
+		assertEquals(bits(0, 1, 2), candidates(index, "tim"));
+		assertEquals(bits(2), candidates(index, "error|connexion"));
+		assertEquals(bits(0, 2), candidates(index, "error|conn.*ion timeout"));
+
+		/* the trigrams spanning a newline are not indexed */
+		assertEquals(bits(), candidates(index, "me\nou"));
+		assertEquals(bits(0, 1, 2), candidates(index, "x?"));
+	}
+
+	@Test
+	void rebuildOnlyReadsChangedFiles() throws IOException {
+		Files.writeString(directory.resolve("a"), "apple\n");
+		Files.writeString(directory.resolve("b"), "banana\n");
+		Files.writeString(directory.resolve("c"), "cherry\n");
+		TrigramIndex.build(directory);
+
+		Files.delete(directory.resolve("a"));
+		Files.writeString(directory.resolve("b"), "blueberry\n");
+		Files.setLastModifiedTime(directory.resolve("b"), FileTime.fromMillis(0));
+		Files.writeString(directory.resolve("d"), "date\n");
+
+		final var summary = TrigramIndex.build(directory);
+		assertEquals(3, summary.fileCount());
+		assertEquals(1, summary.reusedCount());
+
+		final var index = TrigramIndex.open(directory);
+		assertEquals(List.of("b", "c", "d"), index.paths);
+		assertEquals(bits(), candidates(index, "apple"));
+		assertEquals(bits(0), candidates(index, "blue"));
+		assertEquals(bits(1), candidates(index, "cherry"));
+		assertEquals(bits(2), candidates(index, "date"));
+	}
+
+	@Test
+	void postingsAreMergedFromRuns() throws IOException {
+		for (var index = 0; index < 20; ++index) {
+			Files.writeString(directory.resolve("file" + (char) ('a' + index)), "common " + "x".repeat(index) + " word%d\n".formatted(index % 3));
+		}
+
+		final var summary = TrigramIndex.build(directory);
+		Files.delete(directory.resolve(TrigramIndex.FILE_NAME));
+		assertEquals(summary, TrigramIndex.build(directory, 5));
+
+		final var index = TrigramIndex.open(directory);
+		assertEquals(bits(IntStream.range(0, 20).toArray()), candidates(index, "common"));
+		assertEquals(bits(IntStream.range(0, 20).filter((file) -> file % 3 == 1).toArray()), candidates(index, "word1"));
+		assertEquals(bits(IntStream.range(3, 20).toArray()), candidates(index, "xxx"));
+		assertEquals(bits(2, 5, 8, 11, 14, 17), candidates(index, "x word2"));
+
+		/* and from a previous index, alongside the files that changed */
+		Files.writeString(directory.resolve("filea"), "changed\n");
+		assertEquals(1, TrigramIndex.open(directory).paths.indexOf("fileb"));
+		assertEquals(19, TrigramIndex.build(directory, 5).reusedCount());
+
+		final var rebuilt = TrigramIndex.open(directory);
+		assertEquals(bits(IntStream.range(1, 20).toArray()), candidates(rebuilt, "common"));
+		assertEquals(bits(0), candidates(rebuilt, "changed"));
+	}
+
+	@Test
+	void indexInSubdirectoryIsIndexed() throws IOException {
+		Files.createDirectories(directory.resolve("sub"));
+		Files.writeString(directory.resolve("sub").resolve(TrigramIndex.FILE_NAME), "timeout\n");
+
+		TrigramIndex.build(directory);
+		TrigramIndex.build(directory);
+
+		final var index = TrigramIndex.open(directory);
+		assertEquals(List.of("sub/" + TrigramIndex.FILE_NAME), index.paths);
+		assertEquals(bits(0), candidates(index, "timeout"));
+	}
+
+	@Test
+	void unreadableFileIsSearchedWithoutTheIndex() throws IOException {
+		Files.writeString(directory.resolve("a"), "timeout\n");
+		Files.writeString(directory.resolve("b"), "timeout\n");
+		Files.setPosixFilePermissions(directory.resolve("b"), Set.of());
+
+		/* the superuser can read anything */
+		assumeFalse(Files.isReadable(directory.resolve("b")));
+
+		assertEquals(new TrigramIndex.Summary(2, 0, 5, 1), TrigramIndex.build(directory));
+
+		final var index = TrigramIndex.open(directory);
+		final var candidates = candidates(index, "timeout");
+		assertEquals(bits(0), candidates);
+
+		final var attributes = Files.readAttributes(directory.resolve("b"), BasicFileAttributes.class);
+		assertTrue(index.mayMatch("b", attributes, candidates));
+
+		/* and it is read again once it can be */
+		Files.setPosixFilePermissions(directory.resolve("b"), PosixFilePermissions.fromString("rw-------"));
+		assertEquals(new TrigramIndex.Summary(2, 1, 5, 0), TrigramIndex.build(directory));
+		assertEquals(bits(0, 1), candidates(TrigramIndex.open(directory), "timeout"));
+	}
+
+	@Test
+	void unreadableIndexIsIgnored() throws IOException {
+		assertNull(TrigramIndex.open(directory));
+
+		Files.writeString(directory.resolve(TrigramIndex.FILE_NAME), "not an index");
+		assertNull(TrigramIndex.open(directory));
+	}
+
+	private static BitSet candidates(TrigramIndex index, String expression) throws IOException {
+		return index.candidates(TrigramQuery.of(Pattern.compile(expression)));
+	}
+
+	private static BitSet bits(int... indexes) {
+		final var bits = new BitSet();
+		for (final var index : indexes) {
+			bits.set(index);
+		}
+
+		return bits;
+	}
+
+}
@@ -0,0 +1,113 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import grep.TrigramQuery.All;
+import grep.TrigramQuery.And;
+import grep.TrigramQuery.Or;
+import grep.TrigramQuery.Trigram;
+
+class TrigramQueryTest {
+
+	@ParameterizedTest(name = "{0} -> {1}")
+	@CsvSource(delimiter = ';', value = {
+		"timeout; (tim ime meo eou out)",
+		"abc|xyz; (abc|xyz)",
+		"ab; *",
+		"a+bcd; (abc bcd)",
+		"hello.*world; (hel ell llo wor orl rld)",
+		"user=(\\w+)@(\\w+); (use ser er=)",
+		"[^ ]+@[^ ]+ timeout; ( ti tim ime meo eou out)",
+		"\\d+ms$; ((0ms|1ms|2ms|3ms|4ms|5ms|6ms|7ms|8ms|9ms))",
+		"x(abc)?y; *",
+		"a(?>bcd)e; (abc bcd cde)",
+		"(\\d)\\1\\1; *",
+		"ab{2,5}cd; (abb)",
+	})
+	void ofPattern(String expression, String expected) {
+		assertEquals(expected, TrigramQuery.of(Pattern.compile(expression)).toString());
+	}
+
+	@Test
+	void ofPatterns() {
+		assertEquals("((err rro ror)|(war arn))", TrigramQuery.of(PatternSet.compile(List.of("error", "warn"))).toString());
+		assertEquals("*", TrigramQuery.of(PatternSet.compile(List.of("error", "a"))).toString());
+	}
+
+	@Test
+	void ofStringTakesTheBytes() {
+		final var query = (And) TrigramQuery.ofString("café");
+
+		assertEquals(List.of(
+			new Trigram('c' << 16 | 'a' << 8 | 'f'),
+			new Trigram('a' << 16 | 'f' << 8 | 0xC3),
+			new Trigram('f' << 16 | 0xC3 << 8 | 0xA9)
+		), query.queries());
+	}
+
+	/* a query is only a necessary condition, it must hold for every line that matches */
+	@Test
+	void everyMatchingLineSatisfiesTheQuery() {
+		final var expressions = List.of(
+			"ab+c",
+			"(abc|bcd)+a",
+			"a(b|c)(a|d)c?ab",
+			"(ab){2,4}c",
+			"[abc]{3}d",
+			"a.b.c",
+			"(a|b)*cab",
+			"ca?b?d",
+			"(?>ab|a)bc"
+		);
+
+		final var random = new Random(21);
+
+		for (final var expression : expressions) {
+			final var pattern = Pattern.compile(expression);
+			final var query = TrigramQuery.of(pattern);
+
+			for (var index = 0; index < 2000; ++index) {
+				final var line = new StringBuilder();
+				for (var length = random.nextInt(12); length > 0; --length) {
+					line.append("abcd".charAt(random.nextInt(4)));
+				}
+
+				if (pattern.find(line)) {
+					assertTrue(satisfies(query, trigrams(line.toString())), () -> expression + " on " + line + ": " + query);
+				}
+			}
+		}
+	}
+
+	private static Set<Integer> trigrams(String line) {
+		final var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		final var trigrams = new HashSet<Integer>();
+		for (var index = 0; index + 3 <= bytes.length; ++index) {
+			trigrams.add((bytes[index] & 0xFF) << 16 | (bytes[index + 1] & 0xFF) << 8 | bytes[index + 2] & 0xFF);
+		}
+
+		return trigrams;
+	}
+
+	private static boolean satisfies(TrigramQuery query, Set<Integer> trigrams) {
+		return switch (query) {
+			case All all -> true;
+			case Trigram trigram -> trigrams.contains(trigram.value());
+			case And and -> and.queries().stream().allMatch((operand) -> satisfies(operand, trigrams));
+			case Or or -> or.queries().stream().anyMatch((operand) -> satisfies(operand, trigrams));
+		};
+	}
+
+}
@@ -0,0 +1,150 @@
+package grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class Utf8CompilerTest {
+
+	private static final String ALPHABET = "ab1 é€中ßд";
+
+	@ParameterizedTest(name = "{0} in {1}")
+	@CsvSource(delimiter = ';', value = {
+		"é; café; true",
+		"caf.$; café; true",
+		"^.{4}$; café; true",
+		"^.{5}$; café; false",
+		"[é€]+; 5 €; true",
+		"[^a]+; aaa; false",
+		"[^a]; aa中; true",
+		"\\w+é; café; true",
+		"\\d €; 20 €; true",
+		"中.+д; 中文 и д; true",
+		"(ß|д)+$; straßeд; true",
+		"[^€]$; 10€; false",
+	})
+	void matchesLikeDecodedLines(String expression, String line, boolean expected) {
+		final var pattern = Pattern.compile(expression);
+
+		assertEquals(expected, pattern.matcher(line).find(0));
+		assertEquals(expected, findUtf8(pattern, line));
+	}
+
+	@Test
+	void randomLines() {
+		final var random = new Random(13);
+
+		final var expressions = List.of(".", "..", "[^a]", "é+", "€\\d", "^.é", "[é€中]+a", "\\w+€", "[^€]*$", "(a|中)b?д");
+		for (final var expression : expressions) {
+			final var pattern = Pattern.compile(expression);
+
+			for (var round = 0; round < 300; ++round) {
+				final var builder = new StringBuilder();
+				for (var index = random.nextInt(8); index > 0; --index) {
+					builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+
+				final var line = builder.toString();
+				assertEquals(pattern.matcher(line).find(0), findUtf8(pattern, line), () -> expression + " in " + line);
+			}
+		}
+	}
+
+	@Test
+	void wideCharactersInClasses() {
+		final var matcher = Pattern.compile("[€é]").matcher("");
+
+		assertTrue(matcher.reset("5€").find(0));
+		assertTrue(matcher.reset("é").find(0));
+		assertFalse(matcher.reset("e").find(0));
+	}
+
+	@Test
+	void patternSet() {
+		final var matcher = PatternSet.compile(List.of("café", "€\\d+", "(é)\\1")).matcher();
+
+		assertTrue(findUtf8(matcher, "un café"));
+		assertTrue(findUtf8(matcher, "€42"));
+		assertTrue(findUtf8(matcher, "éé"));
+		assertFalse(findUtf8(matcher, "cafe €"));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "", "ascii", "é", "€", "中文" })
+	void basicMultilingual(String line) {
+		final var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		assertTrue(Utf8Compiler.isBasicMultilingual(bytes, 0, bytes.length));
+	}
+
+	@Test
+	void notBasicMultilingual() {
+		final var supplementary = "😀".getBytes(StandardCharsets.UTF_8);
+		assertFalse(Utf8Compiler.isBasicMultilingual(supplementary, 0, supplementary.length));
+
+		/* truncated, overlong, and an encoded surrogate */
+		assertFalse(isBasicMultilingual(0xE2, 0x82));
+		assertFalse(isBasicMultilingual(0xC0, 0xAF));
+		assertFalse(isBasicMultilingual(0xE0, 0x80, 0xAF));
+		assertFalse(isBasicMultilingual(0xED, 0xA0, 0x80));
+		assertFalse(isBasicMultilingual(0x80));
+	}
+
+	@Test
+	void decodeKeepsOffsets() {
+		final var line = "aé€😀";
+		final var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		final var characters = new char[bytes.length + 1];
+		final var offsets = new int[bytes.length + 1];
+		final var count = Utf8Compiler.decode(bytes, 0, bytes.length, characters, offsets);
+
+		assertEquals(line, new String(characters, 0, count));
+		assertArrayEquals(new int[] { 0, 1, 3, 6, 6, 10 }, Arrays.copyOf(offsets, count + 1));
+	}
+
+	@Test
+	void decodeReplacesEveryMalformedByte() {
+		final var bytes = new byte[] { 'a', (byte) 0xE2, (byte) 0x82, 'b', (byte) 0xED, (byte) 0xA0, (byte) 0x80 };
+
+		final var characters = new char[bytes.length + 1];
+		final var offsets = new int[bytes.length + 1];
+		final var count = Utf8Compiler.decode(bytes, 0, bytes.length, characters, offsets);
+
+		assertEquals("a\uFFFD\uFFFDb\uFFFD\uFFFD\uFFFD", new String(characters, 0, count));
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }, Arrays.copyOf(offsets, count + 1));
+	}
+
+	private static boolean findUtf8(Pattern pattern, String line) {
+		final var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		return pattern.findUtf8(new ByteSequence().set(bytes, 0, bytes.length), 0, bytes.length);
+	}
+
+	private static boolean findUtf8(SetMatcher matcher, String line) {
+		final var bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		return matcher.findUtf8(bytes, 0, bytes.length);
+	}
+
+	private static boolean isBasicMultilingual(int... values) {
+		final var bytes = new byte[values.length];
+		for (var index = 0; index < values.length; ++index) {
+			bytes[index] = (byte) values[index];
+		}
+
+		return Utf8Compiler.isBasicMultilingual(bytes, 0, bytes.length);
+	}
+
+}